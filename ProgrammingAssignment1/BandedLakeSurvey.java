@@ -0,0 +1,411 @@
+// File name: BandedLakeSurvey.java
+// Out-of-core engine for the island/lake survey (IslandLakeSurvey --budget). The map is kept in a
+// bit-packed temp file and labeled one band of rows at a time, the band height chosen so a band's
+// work arrays fit the memory budget. Each band spills its boundary rows (labels and bits) and a
+// summary of its components (island areas, white areas, edge flags, side contacts with islands)
+// to a temp file; a final merge pass joins the components across band seams and produces the same
+// report as the in-memory survey. A phase only relabels and re-spills the bands it adds land to;
+// the other bands' spill files still hold. Memory is O(band + number of components) instead of
+// O(map): the budget covers the band (cell) work space, while the merge tables take a few ints per
+// island and white component of the whole map on top of it.
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+public class BandedLakeSurvey implements Closeable {
+
+    // Rough bytes of work space per band cell: the band partition, the local label map and the
+    // per-component summaries (every cell may be its own component in the worst case).
+    private static final int BYTES_PER_CELL = 40;
+
+    private static final int NONE = IslandLakeSurvey.LakeScratch.NONE;
+    private static final int NOT_LAKE = IslandLakeSurvey.LakeScratch.NOT_LAKE;
+
+    private final int rows, cols, wordsPerRow;
+    private final int bandRows, bandCount;
+
+    private final Path dir;             // temp directory holding the map and the band spill files
+    private final FileChannel mapFile;  // row i occupies bytes [i*wordsPerRow*8, (i+1)*wordsPerRow*8)
+    private final ByteBuffer io;        // one band of map words
+
+    // Band work space, reused by every band of every phase
+    private final ForestPartition P;    // islands (4-neighbor) and white components (8-neighbor)
+    private final int[] localId;        // P leader -> island id or white id within the band
+    private final int[] blackArea, whiteArea, whiteState, lastPair;
+    private final boolean[] open;       // island id -> touches a seam row, may continue in another band
+
+    // Number of islands and white components in each band of the latest pass
+    private final int[] blackCount, whiteCount;
+
+    // Sets up the temp files and band work space for a rows x cols map in about budgetBytes of memory.
+    public BandedLakeSurvey(int rows, int cols, long budgetBytes) throws IOException {
+        this.rows = rows;
+        this.cols = cols;
+        this.wordsPerRow = (cols + 63) >>> 6;
+        long fit = budgetBytes / ((long) BYTES_PER_CELL * Math.max(1, cols));
+        this.bandRows = (int) Math.max(1, Math.min(Math.max(1, rows), Math.min(fit, Integer.MAX_VALUE / Math.max(1, cols))));
+        this.bandCount = (rows + bandRows - 1) / bandRows;
+
+        dir = Files.createTempDirectory("islandlake");
+        mapFile = FileChannel.open(dir.resolve("map.bin"), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        io = ByteBuffer.allocate(bandRows * wordsPerRow * 8);
+
+        int cells = bandRows * cols;
+        P = new ForestPartition(cells);
+        localId = new int[cells];
+        blackArea = new int[cells];
+        whiteArea = new int[cells];
+        whiteState = new int[cells];
+        lastPair = new int[cells];
+        open = new boolean[cells];
+        blackCount = new int[bandCount];
+        whiteCount = new int[bandCount];
+    }
+
+    // Reads the map rows and phases from input and writes one report per phase, like IslandLakeSurvey.
+    public static void run(SurveyInput input, SurveyOutput output, int rows, int cols, long budgetBytes) throws IOException {
+        try (BandedLakeSurvey survey = new BandedLakeSurvey(rows, cols, budgetBytes)) {
+            survey.labelBands(input, null);
+            IslandLakeSurvey.printResults(output, survey.merge());
+
+            int numPhases = input.nextInt();
+            if (numPhases > 0) output.println();
+
+            for (int phase = 0; phase < numPhases; phase++) {
+                int L = input.nextInt();
+                long[] newLand = new long[L];
+                for (int k = 0; k < L; k++) {
+                    int i = input.nextInt();
+                    int j = input.nextInt();
+                    newLand[k] = (long) i * cols + j;
+                }
+                // Sorted by cell, so each band picks up its new land in one forward walk
+                Arrays.sort(newLand);
+
+                survey.labelBands(null, newLand);
+                IslandLakeSurvey.printResults(output, survey.merge());
+
+                if (phase < numPhases - 1) {
+                    output.println();
+                }
+            }
+        }
+    }
+
+    // Removes the temp files.
+    @Override
+    public void close() throws IOException {
+        mapFile.close();
+        for (int b = 0; b < bandCount; b++) {
+            Files.deleteIfExists(bandFile(b));
+        }
+        Files.deleteIfExists(dir.resolve("map.bin"));
+        Files.deleteIfExists(dir);
+    }
+
+    // One pass over the map, band by band: the first pass reads the rows from input into the map
+    // file and labels and spills every band; later passes add the (sorted) new land cells to the
+    // map file and only label and spill the bands that got some (a band's spill file depends on
+    // nothing but its own rows).
+    private void labelBands(SurveyInput input, long[] newLand) throws IOException {
+        BitGrid full = new BitGrid(bandRows, cols);
+        int next = 0;
+        for (int b = 0; b < bandCount; b++) {
+            int r0 = b * bandRows;
+            int h = Math.min(bandRows, rows - r0);
+            BitGrid band = h == bandRows ? full : new BitGrid(h, cols);
+
+            if (input != null) {
+                for (int i = 0; i < h; i++) input.readRow(band, i);
+                storeBand(band, r0);
+            } else {
+                long end = (long) (r0 + h) * cols;
+                if (next == newLand.length || newLand[next] >= end) {
+                    continue;   // untouched: its spill file is still current
+                }
+                loadBand(band, r0);
+                while (next < newLand.length && newLand[next] < end) {
+                    long c = newLand[next++] - (long) r0 * cols;
+                    band.setLand((int) (c / cols), (int) (c % cols));
+                }
+                storeBand(band, r0);
+            }
+            spillBand(band, r0, b);
+        }
+    }
+
+    // Labels the band's islands and white components and writes its spill file:
+    //   island count, white count, top row, bottom row (labels then bits),
+    //   island areas, white areas, (white, open island) side contacts ending with -1,
+    //   and for each white its state: NONE, NOT_LAKE or the one closed island it touches by a side.
+    private void spillBand(BitGrid band, int r0, int b) throws IOException {
+        int h = band.rows();
+        P.clear();
+        IslandSurvey.labelIslands(band, P);
+        IslandLakeSurvey.buildWhitePartitionFromScratch(band, h, cols, P);
+
+        int nBlack = 0, nWhite = 0;
+        for (int k = 0; k < P.numberOfClusters(); k++) {
+            int leader = P.leader(k);
+            if (band.isLand(leader / cols, leader % cols)) {
+                blackArea[nBlack] = P.clusterSize(leader);
+                open[nBlack] = false;
+                localId[leader] = nBlack++;
+            } else {
+                whiteArea[nWhite] = P.clusterSize(leader);
+                whiteState[nWhite] = NONE;
+                lastPair[nWhite] = -1;
+                localId[leader] = nWhite++;
+            }
+        }
+        // Islands on a seam row may join islands of the neighbouring band; the rest are complete
+        if (r0 > 0) markOpen(band, 0);
+        if (r0 + h < rows) markOpen(band, h - 1);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(bandFile(b)), 1 << 16))) {
+            out.writeInt(nBlack);
+            out.writeInt(nWhite);
+            writeRow(out, band, 0);
+            writeRow(out, band, h - 1);
+            for (int k = 0; k < nBlack; k++) out.writeInt(blackArea[k]);
+            for (int k = 0; k < nWhite; k++) out.writeInt(whiteArea[k]);
+
+            // Side contacts with complete islands are settled here; contacts with open islands are
+            // spilled since two of them may still turn out to be the same island
+            for (int i = 0; i < h; i++) {
+                for (int j = 0; j < cols; j++) {
+                    if (!band.isWater(i, j)) {
+                        continue;
+                    }
+                    int w = label(i * cols + j);
+                    if (whiteState[w] == NOT_LAKE) {
+                        continue;
+                    }
+                    if (r0 + i == 0 || r0 + i == rows - 1 || j == 0 || j == cols - 1) {
+                        whiteState[w] = NOT_LAKE;
+                        continue;
+                    }
+                    contact(out, band, w, i - 1, j);
+                    contact(out, band, w, i + 1, j);
+                    contact(out, band, w, i, j - 1);
+                    contact(out, band, w, i, j + 1);
+                }
+            }
+            out.writeInt(-1);
+            for (int k = 0; k < nWhite; k++) out.writeInt(whiteState[k]);
+        }
+        blackCount[b] = nBlack;
+        whiteCount[b] = nWhite;
+    }
+
+    // Records that white w touches the band cell (i,j) by a side, if that cell is land.
+    private void contact(DataOutputStream out, BitGrid band, int w, int i, int j) throws IOException {
+        if (!band.isLand(i, j)) {
+            return;
+        }
+        int black = label(i * cols + j);
+        if (!open[black]) {
+            sideIsland(whiteState, w, black);
+        } else if (lastPair[w] != black) {
+            // skips the repeats along a shared coast; any left are harmless to the merge
+            lastPair[w] = black;
+            out.writeInt(w);
+            out.writeInt(black);
+        }
+    }
+
+    private void markOpen(BitGrid band, int i) {
+        for (int j = band.nextLand(i, 0); j < cols; j = band.nextLand(i, j + 1)) {
+            open[label(i * cols + j)] = true;
+        }
+    }
+
+    private void writeRow(DataOutputStream out, BitGrid band, int i) throws IOException {
+        for (int j = 0; j < cols; j++) out.writeInt(label(i * cols + j));
+        for (int w = 0; w < wordsPerRow; w++) out.writeLong(band.word(i, w));
+    }
+
+    private int label(int cell) {
+        return localId[P.find(cell)];
+    }
+
+    // Merges the spill files of the latest pass into the survey result. The first read joins
+    // islands and white components across each seam; the second adds up the areas and settles
+    // which white components are lakes, now that every island has its final leader.
+    private IslandLakeSurvey.IslandLakeResult merge() throws IOException {
+        // Band b's components get the global ids blackBase[b] .. and whiteBase[b] ..
+        int[] blackBase = new int[bandCount + 1];
+        int[] whiteBase = new int[bandCount + 1];
+        for (int b = 0; b < bandCount; b++) {
+            blackBase[b + 1] = blackBase[b] + blackCount[b];
+            whiteBase[b + 1] = whiteBase[b] + whiteCount[b];
+        }
+        ForestPartition BP = new ForestPartition(blackBase[bandCount]);
+        ForestPartition WP = new ForestPartition(whiteBase[bandCount]);
+        for (int x = 0; x < BP.capacity(); x++) BP.makeCluster(x);
+        for (int x = 0; x < WP.capacity(); x++) WP.makeCluster(x);
+
+        BoundaryRow above = new BoundaryRow(cols, wordsPerRow);
+        BoundaryRow top = new BoundaryRow(cols, wordsPerRow);
+        BoundaryRow bottom = new BoundaryRow(cols, wordsPerRow);
+
+        for (int b = 0; b < bandCount; b++) {
+            try (DataInputStream in = openBand(b)) {
+                in.readInt();
+                in.readInt();
+                top.read(in);
+                bottom.read(in);
+            }
+            if (b > 0) {
+                joinSeam(above, top, blackBase[b - 1], whiteBase[b - 1], blackBase[b], whiteBase[b], BP, WP);
+            }
+            BoundaryRow t = above; above = bottom; bottom = t;
+        }
+
+        int[] state = new int[WP.capacity()];   // WP leader -> NONE, NOT_LAKE or its one island leader
+        Arrays.fill(state, NONE);
+        for (int b = 0; b < bandCount; b++) {
+            int bb = blackBase[b], wb = whiteBase[b];
+            try (DataInputStream in = openBand(b)) {
+                in.readInt();
+                in.readInt();
+                top.read(in);
+                bottom.read(in);
+                if (b > 0) {
+                    seamContacts(above, top, blackBase[b - 1], whiteBase[b - 1], bb, wb, BP, WP, state);
+                }
+
+                // Areas are attached to the leaders as extra area on top of the one cell per id
+                for (int k = 0; k < blackCount[b]; k++) BP.addArea(bb + k, in.readInt() - 1);
+                for (int k = 0; k < whiteCount[b]; k++) WP.addArea(wb + k, in.readInt() - 1);
+
+                for (int w = in.readInt(); w >= 0; w = in.readInt()) {
+                    int black = in.readInt();
+                    sideIsland(state, WP.find(wb + w), BP.find(bb + black));
+                }
+                for (int k = 0; k < whiteCount[b]; k++) {
+                    int s = in.readInt();
+                    if (s == NOT_LAKE) {
+                        state[WP.find(wb + k)] = NOT_LAKE;
+                    } else if (s >= 0) {
+                        sideIsland(state, WP.find(wb + k), BP.find(bb + s));
+                    }
+                }
+            }
+            BoundaryRow t = above; above = bottom; bottom = t;
+        }
+
+        // Lake must be fully interior and touch exactly one island by sides
+        int lakeCount = 0, lakeArea = 0;
+        for (int k = 0; k < WP.numberOfClusters(); k++) {
+            int w = WP.leader(k);
+            if (state[w] >= 0) {
+                int area = WP.clusterArea(w);
+                lakeCount++;
+                lakeArea += area;
+                BP.addArea(state[w], area);
+            }
+        }
+
+        List<Integer> finalSizes = BP.clusterAreas();   // island sizes including lakes, already sorted
+        return new IslandLakeSurvey.IslandLakeResult(BP.numberOfClusters(), finalSizes, (int) BP.totalArea(), lakeCount, lakeArea);
+    }
+
+    // Joins islands (by sides) and white components (by sides and corners) across the seam
+    // between the last row of one band (up) and the first row of the next (down).
+    private void joinSeam(BoundaryRow up, BoundaryRow down, int upBlack, int upWhite, int downBlack, int downWhite,
+                          ForestPartition BP, ForestPartition WP) {
+        for (int j = 0; j < cols; j++) {
+            if (up.isLand(j)) {
+                if (down.isLand(j)) BP.union(upBlack + up.label[j], downBlack + down.label[j]);
+                continue;
+            }
+            for (int dj = -1; dj <= 1; dj++) {
+                int nj = j + dj;
+                if (nj >= 0 && nj < cols && !down.isLand(nj)) {
+                    WP.union(upWhite + up.label[j], downWhite + down.label[nj]);
+                }
+            }
+        }
+    }
+
+    // Records the side contacts between white and land cells across a seam.
+    private void seamContacts(BoundaryRow up, BoundaryRow down, int upBlack, int upWhite, int downBlack, int downWhite,
+                              ForestPartition BP, ForestPartition WP, int[] state) {
+        for (int j = 0; j < cols; j++) {
+            if (up.isLand(j) && !down.isLand(j)) {
+                sideIsland(state, WP.find(downWhite + down.label[j]), BP.find(upBlack + up.label[j]));
+            } else if (!up.isLand(j) && down.isLand(j)) {
+                sideIsland(state, WP.find(upWhite + up.label[j]), BP.find(downBlack + down.label[j]));
+            }
+        }
+    }
+
+    // Records that white component w touches island leader by a side (same rule as IslandLakeSurvey).
+    private static void sideIsland(int[] state, int w, int leader) {
+        if (state[w] == NONE) {
+            state[w] = leader;
+        } else if (state[w] != leader) {
+            state[w] = NOT_LAKE;
+        }
+    }
+
+    private void loadBand(BitGrid band, int r0) throws IOException {
+        io.clear();
+        io.limit(band.rows() * wordsPerRow * 8);
+        long start = (long) r0 * wordsPerRow * 8;
+        while (io.hasRemaining()) {
+            if (mapFile.read(io, start + io.position()) < 0) {
+                throw new EOFException("map file is shorter than the map");
+            }
+        }
+        io.flip();
+        for (int i = 0; i < band.rows(); i++) {
+            for (int w = 0; w < wordsPerRow; w++) band.setWord(i, w, io.getLong());
+        }
+    }
+
+    private void storeBand(BitGrid band, int r0) throws IOException {
+        io.clear();
+        for (int i = 0; i < band.rows(); i++) {
+            for (int w = 0; w < wordsPerRow; w++) io.putLong(band.word(i, w));
+        }
+        io.flip();
+        long start = (long) r0 * wordsPerRow * 8;
+        while (io.hasRemaining()) {
+            mapFile.write(io, start + io.position());
+        }
+    }
+
+    private Path bandFile(int b) {
+        return dir.resolve("band" + b + ".bin");
+    }
+
+    private DataInputStream openBand(int b) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(bandFile(b)), 1 << 16));
+    }
+
+    // First or last row of a band as read back from its spill file.
+    private static class BoundaryRow {
+        final int[] label;    // island id for land cells, white id for water cells
+        final long[] bits;    // 1 = land, same layout as a BitGrid row
+
+        BoundaryRow(int cols, int wordsPerRow) {
+            label = new int[cols];
+            bits = new long[wordsPerRow];
+        }
+
+        void read(DataInputStream in) throws IOException {
+            for (int j = 0; j < label.length; j++) label[j] = in.readInt();
+            for (int w = 0; w < bits.length; w++) bits[w] = in.readLong();
+        }
+
+        boolean isLand(int j) {
+            return (bits[j >>> 6] & (1L << j)) != 0;
+        }
+    }
+}
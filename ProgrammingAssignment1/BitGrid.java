@@ -0,0 +1,135 @@
+// File name: BitGrid.java
+// Bit-packed land map: one bit per cell (1 = land), 64 cells per long, each row padded to whole words.
+// Uses 1/16 of the memory of a char[][] map and lets scans work a word (64 cells) at a time.
+
+import java.io.*;
+import java.util.Arrays;
+
+public class BitGrid {
+
+    private final int rows, cols;
+    private final int wordsPerRow;
+    private final long[] words;   // row i occupies words[i*wordsPerRow .. (i+1)*wordsPerRow)
+
+    // Creates an all-water grid.
+    public BitGrid(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+        this.wordsPerRow = (cols + 63) >>> 6;
+        this.words = new long[rows * wordsPerRow];
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    public int wordsPerRow() {
+        return wordsPerRow;
+    }
+
+    // True if (i,j) is inside the grid and is land; cells outside the grid count as neither.
+    public boolean isLand(int i, int j) {
+        return i >= 0 && i < rows && j >= 0 && j < cols
+                && (words[i * wordsPerRow + (j >>> 6)] & (1L << j)) != 0;
+    }
+
+    // True if (i,j) is inside the grid and is water.
+    public boolean isWater(int i, int j) {
+        return i >= 0 && i < rows && j >= 0 && j < cols
+                && (words[i * wordsPerRow + (j >>> 6)] & (1L << j)) == 0;
+    }
+
+    public void setLand(int i, int j) {
+        words[i * wordsPerRow + (j >>> 6)] |= 1L << j;
+    }
+
+    public void setWater(int i, int j) {
+        words[i * wordsPerRow + (j >>> 6)] &= ~(1L << j);
+    }
+
+    // Word w of row i; bit b is column 64*w + b. Bits past the last column are always 0.
+    public long word(int i, int w) {
+        return words[i * wordsPerRow + w];
+    }
+
+    // Replaces word w of row i (bits past the last column are dropped).
+    public void setWord(int i, int w, long bits) {
+        int tail = cols - (w << 6);
+        if (tail < 64) {
+            bits &= (1L << tail) - 1;
+        }
+        words[i * wordsPerRow + w] = bits;
+    }
+
+    // Number of land cells in row i.
+    public int landCount(int i) {
+        int count = 0;
+        for (int w = 0; w < wordsPerRow; w++) {
+            count += Long.bitCount(words[i * wordsPerRow + w]);
+        }
+        return count;
+    }
+
+    // Number of land cells in the whole grid.
+    public long landCount() {
+        long count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    // First land column >= from in row i, or cols if there is none.
+    public int nextLand(int i, int from) {
+        return nextBit(i, from, 0L);
+    }
+
+    // First water column >= from in row i, or cols if there is none.
+    public int nextWater(int i, int from) {
+        return nextBit(i, from, -1L);
+    }
+
+    // Turns every cell back into water.
+    public void clear() {
+        Arrays.fill(words, 0L);
+    }
+
+    public BitGrid copy() {
+        BitGrid copy = new BitGrid(rows, cols);
+        System.arraycopy(words, 0, copy.words, 0, words.length);
+        return copy;
+    }
+
+    // Writes the size and words of the grid to a checkpoint (see SurveyCheckpoint).
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(rows);
+        out.writeInt(cols);
+        SurveyCheckpoint.writeLongs(out, words);
+    }
+
+    static BitGrid readFrom(DataInputStream in) throws IOException {
+        BitGrid grid = new BitGrid(in.readInt(), in.readInt());
+        SurveyCheckpoint.readLongs(in, grid.words);
+        return grid;
+    }
+
+    // Finds the next column whose bit differs from the pattern (0 for land, all ones for water).
+    private int nextBit(int i, int from, long flip) {
+        if (from >= cols) {
+            return cols;
+        }
+        int w = from >>> 6;
+        long bits = (words[i * wordsPerRow + w] ^ flip) & (-1L << from);
+        while (bits == 0) {
+            if (++w == wordsPerRow) {
+                return cols;
+            }
+            bits = words[i * wordsPerRow + w] ^ flip;
+        }
+        return Math.min(cols, (w << 6) + Long.numberOfTrailingZeros(bits));
+    }
+}
@@ -0,0 +1,181 @@
+// File name: ConcurrentPartition.java
+// Lock-free Partition ADT over int cell indices, for several threads adding land at once.
+// makeCluster, find and union may run concurrently from any number of threads; union links
+// leaders with a single compareAndSet and find never blocks or retries a failed write.
+// numberOfClusters, clusterSize and clusterSizes are exact at phase boundaries, i.e. whenever
+// no update is in flight.
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ConcurrentPartition {
+
+    // Marks an index that has not been added with makeCluster yet.
+    private static final int ABSENT = -1;
+
+    // parent[x] == x for a leader, ABSENT if x is not in the partition
+    private final AtomicIntegerArray parent;
+
+    // Cluster sizes live at the leaders. A size that lands on an index after it stopped being a
+    // leader is forwarded up the tree (see deposit), so once updates stop every unit of size is
+    // stored at a current leader.
+    private final AtomicIntegerArray size;
+
+    private final LongAdder clusterCount = new LongAdder();
+
+    // Candidates for leadership: leaders as of the last phase boundary, then every index added
+    // since. Compacted back to the real leaders by clusterSizes.
+    private final int[] leaders;
+    private final AtomicInteger leaderEnd = new AtomicInteger();
+
+    // Creates an empty partition over the indices 0 .. capacity-1.
+    public ConcurrentPartition(int capacity) {
+        parent = new AtomicIntegerArray(capacity);
+        size = new AtomicIntegerArray(capacity);
+        leaders = new int[capacity];
+        for (int x = 0; x < capacity; x++) {
+            parent.set(x, ABSENT);
+        }
+    }
+
+    // Copies a sequential partition, e.g. the one built for the initial phase.
+    public static ConcurrentPartition copyOf(ForestPartition P) {
+        ConcurrentPartition copy = new ConcurrentPartition(P.capacity());
+        int[] forest = P.forest();
+        for (int x = 0; x < forest.length; x++) {
+            if (P.contains(x)) {
+                // forest encoding: a leader stores -size, a member stores its parent
+                copy.parent.set(x, forest[x] < 0 ? x : forest[x]);
+                copy.size.set(x, forest[x] < 0 ? -forest[x] : 0);
+            }
+        }
+        for (int k = 0; k < P.numberOfClusters(); k++) {
+            copy.leaders[k] = P.leader(k);
+        }
+        copy.leaderEnd.set(P.numberOfClusters());
+        copy.clusterCount.add(P.numberOfClusters());
+        return copy;
+    }
+
+    // Copies the partition back into a sequential one. Only call at a phase boundary.
+    public ForestPartition toForestPartition() {
+        ForestPartition P = new ForestPartition(parent.length());
+        int[] forest = P.forest();
+        for (int x = 0; x < forest.length; x++) {
+            int p = parent.get(x);
+            if (p != ABSENT) {
+                forest[x] = p == x ? -size.get(x) : p;
+            }
+        }
+        P.rebuildLeaders();
+        return P;
+    }
+
+    // True if x has been added with makeCluster.
+    public boolean contains(int x) {
+        return parent.get(x) != ABSENT;
+    }
+
+    // Create singleton cluster for index x. Safe to call concurrently for different x.
+    public int makeCluster(int x) {
+        size.set(x, 1);
+        parent.set(x, x);
+        leaders[leaderEnd.getAndIncrement()] = x;
+        clusterCount.increment();
+        return x;
+    }
+
+    // Returns the current leader of x's cluster. Path halving uses one compareAndSet per step;
+    // if another thread changed the link first the write is simply skipped.
+    public int find(int x) {
+        int p = parent.get(x);
+        while (p != x) {
+            int gp = parent.get(p);
+            if (gp != p) {
+                parent.compareAndSet(x, p, gp);
+            }
+            x = gp;
+            p = parent.get(x);
+        }
+        return x;
+    }
+
+    // Merges the clusters containing p and q; returns false if they were already one cluster.
+    public boolean union(int p, int q) {
+        while (true) {
+            int rootP = find(p);
+            int rootQ = find(q);
+            if (rootP == rootQ) {
+                return false;
+            }
+            // Always hang the lower-priority leader under the higher one. A fixed total order means
+            // two racing unions can never link two leaders under each other and form a cycle.
+            int lower = higherPriority(rootP, rootQ) ? rootQ : rootP;
+            int higher = lower == rootP ? rootQ : rootP;
+            if (parent.compareAndSet(lower, lower, higher)) {
+                clusterCount.decrement();
+                deposit(higher, size.getAndSet(lower, 0));
+                return true;
+            }
+            // lower was linked by someone else in the meantime; retry from the new leaders
+        }
+    }
+
+    // Returns number of clusters (exact at a phase boundary).
+    public int numberOfClusters() {
+        return (int) clusterCount.sum();
+    }
+
+    // Returns the size of the cluster containing p (exact at a phase boundary).
+    public int clusterSize(int p) {
+        return size.get(find(p));
+    }
+
+    // Returns the size of each cluster in decreasing order. Only call at a phase boundary.
+    public List<Integer> clusterSizes() {
+        // Drop the candidates that were merged away, keeping each leader once
+        int end = leaderEnd.get();
+        int count = 0;
+        for (int k = 0; k < end; k++) {
+            int x = leaders[k];
+            if (parent.get(x) == x) {
+                leaders[count++] = x;
+            }
+        }
+        leaderEnd.set(count);
+
+        ArrayList<Integer> sizes = new ArrayList<>(count);
+        for (int k = 0; k < count; k++) {
+            sizes.add(size.get(leaders[k]));
+        }
+        sizes.sort(Comparator.reverseOrder());
+        return sizes;
+    }
+
+    // Adds amount to leader r's size. If r is linked under another leader at the same time, the
+    // amount may land after r's own size was moved up; then it is taken back and moved up too.
+    private void deposit(int r, int amount) {
+        while (amount != 0) {
+            size.addAndGet(r, amount);
+            if (parent.get(r) == r) {
+                return;
+            }
+            amount = size.getAndSet(r, 0);
+            r = find(r);
+        }
+    }
+
+    // Pseudo-random but fixed priority per index (ties broken by index), so leaders are linked in
+    // a balanced-looking order instead of always towards the end of the grid.
+    private static boolean higherPriority(int x, int y) {
+        int hx = mix(x), hy = mix(y);
+        return hx != hy ? hx > hy : x > y;
+    }
+
+    private static int mix(int x) {
+        x *= 0x9E3779B9;
+        return x ^ (x >>> 16);
+    }
+}
@@ -0,0 +1,445 @@
+// File name: ForestPartition.java
+// Array-backed (union-find forest) implementation of the Partition ADT.
+// Positions are int cell indices (i * cols + j) instead of Node objects, so a whole
+// survey grid costs a few int arrays rather than one object per cell.
+
+import java.io.*;
+import java.util.*;
+
+public class ForestPartition {
+
+    // Marks an index that has not been added with makeCluster yet.
+    private static final int ABSENT = Integer.MIN_VALUE;
+
+    // parent[x] >= 0  -> x is a member, parent[x] is the next index towards the leader
+    // parent[x] <  0  -> x is a leader and -parent[x] is the size of its cluster
+    // parent[x] == ABSENT -> x is not in the partition
+    private final int[] parent;
+
+    // Leaders are kept in a dense list so clusters can be listed without scanning every index.
+    private final int[] leaders;
+    private final int[] leaderSlot;  // leaderSlot[x] = position of leader x inside leaders
+    private int clusterCount;
+    private long elementCount;
+
+    // Extra area attached to a cluster on top of its element count (e.g. the lakes an island
+    // encloses), kept at the leaders. Allocated on the first addArea call.
+    private int[] extra;
+    private long extraTotal;
+
+    // Multiset of cluster areas (area -> number of clusters with that area), so the sorted list
+    // of areas never needs a sort. It is built on the first query and then kept up to date by
+    // every makeCluster, union and addArea; bulk labeling before that pays nothing for it.
+    private TreeMap<Integer, Integer> countByArea;
+
+    // Change tracking (see trackChanges): every index that became a leader, grew or was merged
+    // away since the last resetChanges, once each. changeStamp[x] is 2*changeEpoch if x changed,
+    // 2*changeEpoch+1 if x was also created in that time. Off (null) unless requested.
+    private int[] changeStamp;
+    private int[] changes;
+    private int changeCount;
+    private int changeEpoch = 1;
+
+    // Work counters for metrics (see SurveyMetrics), only kept up while counting is on (a phase
+    // is being measured) and never reset: find calls, links (unions that merged two clusters,
+    // including a bulk labeling) and parent pointers shortened by path halving.
+    private boolean counting;
+    private long finds, links, relinks;
+
+    // Creates an empty partition over the indices 0 .. capacity-1.
+    public ForestPartition(int capacity) {
+        parent = new int[capacity];
+        leaders = new int[capacity];
+        leaderSlot = new int[capacity];
+        Arrays.fill(parent, ABSENT);
+    }
+
+    // Empties the partition so it can be refilled without allocating new arrays.
+    public void clear() {
+        Arrays.fill(parent, ABSENT);
+        clusterCount = 0;
+        elementCount = 0;
+        extra = null;
+        extraTotal = 0;
+        countByArea = null;
+        counting = false;
+        if (changeStamp != null) {
+            Arrays.fill(changeStamp, 0);
+            changeCount = 0;
+        }
+    }
+
+    // Number of indices this partition can hold.
+    public int capacity() {
+        return parent.length;
+    }
+
+    // True if x has been added with makeCluster.
+    public boolean contains(int x) {
+        return parent[x] != ABSENT;
+    }
+
+    // Create singleton cluster for index x, return its position (x itself).
+    public int makeCluster(int x) {
+        parent[x] = -1;
+        leaderSlot[x] = clusterCount;
+        leaders[clusterCount++] = x;
+        elementCount++;
+        if (countByArea != null) {
+            addCount(1, 1);
+        }
+        if (changeStamp != null) {
+            markChanged(x);
+            changeStamp[x] = 2 * changeEpoch + 1;
+        }
+        return x;
+    }
+
+    // Returns the leader of x's cluster. Path halving keeps the trees shallow.
+    public int find(int x) {
+        if (!counting) {
+            return find(parent, x);
+        }
+        finds++;
+        while (parent[x] >= 0) {
+            int p = parent[x];
+            if (parent[p] >= 0) {
+                parent[x] = parent[p];
+                relinks++;
+            }
+            x = parent[x];
+        }
+        return x;
+    }
+
+    // Returns the leader of x's cluster without shortening any path, so several threads may call
+    // it at once while nothing changes the partition (find writes as it goes).
+    public int leaderOf(int x) {
+        while (parent[x] >= 0) {
+            x = parent[x];
+        }
+        return x;
+    }
+
+    // Size of the cluster led by leader (from leaderOf); like leaderOf it writes nothing.
+    public int sizeOf(int leader) {
+        return -parent[leader];
+    }
+
+    // Merges clusters containing p and q (smaller tree hangs under larger), returns the new leader.
+    public int union(int p, int q) {
+        int rootP = find(p);
+        int rootQ = find(q);
+
+        // edge case (if both clusters are same)
+        if (rootP == rootQ) {
+            return rootP;
+        }
+
+        if (countByArea != null) {
+            addCount(area(rootP), -1);
+            addCount(area(rootQ), -1);
+        }
+
+        int larger = link(parent, rootP, rootQ);
+        int smaller = larger == rootP ? rootQ : rootP;
+        removeLeader(smaller);
+        if (counting) {
+            links++;
+        }
+        if (extra != null) {
+            extra[larger] += extra[smaller];
+        }
+
+        if (countByArea != null) {
+            addCount(area(larger), 1);
+        }
+        if (changeStamp != null) {
+            markChanged(larger);
+            markChanged(smaller);
+        }
+        return larger;
+    }
+
+    // Returns number of clusters.
+    public int numberOfClusters() {
+        return clusterCount;
+    }
+
+    // Returns the size of the cluster containing p.
+    public int clusterSize(int p) {
+        return -parent[find(p)];
+    }
+
+    // Returns the k-th leader (0 <= k < numberOfClusters()); order changes after union.
+    public int leader(int k) {
+        return leaders[k];
+    }
+
+    // Returns list of integers determining the size of each cluster in decreasing order
+    public List<Integer> clusterSizes() {
+        // Without extra area a cluster's area is its size, so the histogram has the answer
+        if (extra == null) {
+            return clusterAreas();
+        }
+        ArrayList<Integer> sizes = new ArrayList<>(clusterCount);
+
+        for (int k = 0; k < clusterCount; k++) {
+            sizes.add(-parent[leaders[k]]);
+        }
+
+        // sorts and returns in decreasing order
+        sizes.sort(Comparator.reverseOrder());
+        return sizes;
+    }
+
+    // Adds amount (may be negative) of extra area to the cluster containing p.
+    public void addArea(int p, int amount) {
+        if (extra == null) {
+            extra = new int[parent.length];
+        }
+        int root = find(p);
+        if (countByArea != null) {
+            addCount(area(root), -1);
+        }
+        extra[root] += amount;
+        extraTotal += amount;
+        if (countByArea != null) {
+            addCount(area(root), 1);
+        }
+        if (changeStamp != null) {
+            markChanged(root);
+        }
+    }
+
+    // Returns the area of the cluster containing p: its size plus any extra area added to it.
+    public int clusterArea(int p) {
+        return area(find(p));
+    }
+
+    // Returns the area of each cluster in decreasing order, read off the area histogram.
+    public List<Integer> clusterAreas() {
+        ArrayList<Integer> areas = new ArrayList<>(clusterCount);
+        for (Map.Entry<Integer, Integer> e : histogram().descendingMap().entrySet()) {
+            for (int k = 0; k < e.getValue(); k++) {
+                areas.add(e.getKey());
+            }
+        }
+        return areas;
+    }
+
+    // Returns the sum of all cluster areas in O(1).
+    public long totalArea() {
+        return elementCount + extraTotal;
+    }
+
+    // Turns the work counters on or off (see SurveyMetrics.Meter).
+    public void countWork(boolean on) {
+        counting = on;
+    }
+
+    public long findCount() {
+        return finds;
+    }
+
+    public long linkCount() {
+        return links;
+    }
+
+    public long relinkCount() {
+        return relinks;
+    }
+
+    // Starts recording which clusters change (makeCluster, union, addArea), for reports that list
+    // only those instead of every cluster. Changes made before this call are not recorded.
+    public void trackChanges() {
+        if (changeStamp == null) {
+            changeStamp = new int[parent.length];
+            changes = new int[16];
+        }
+    }
+
+    // Number of indices recorded since the last resetChanges.
+    public int changeCount() {
+        return changeCount;
+    }
+
+    // The k-th recorded index (0 <= k < changeCount()): a current leader whose cluster is new or
+    // changed, or a former leader that was merged away.
+    public int change(int k) {
+        return changes[k];
+    }
+
+    // True if x was created with makeCluster since the last resetChanges.
+    public boolean isNew(int x) {
+        return changeStamp[x] == 2 * changeEpoch + 1;
+    }
+
+    // Forgets the recorded changes in O(1); the next ones are recorded from scratch.
+    public void resetChanges() {
+        changeCount = 0;
+        if (++changeEpoch > Integer.MAX_VALUE / 2 - 1) {
+            Arrays.fill(changeStamp, 0);
+            changeEpoch = 1;
+        }
+    }
+
+    // Direct access to the forest array for bulk builders (see ParallelLabeler), which fill it
+    // with find/link and then call rebuildLeaders. Not for use between ordinary operations.
+    int[] forest() {
+        return parent;
+    }
+
+    // Rebuilds the leader list (and counts) from the forest array after a bulk build.
+    void rebuildLeaders() {
+        clusterCount = 0;
+        elementCount = 0;
+        for (int x = 0; x < parent.length; x++) {
+            if (parent[x] < 0 && parent[x] != ABSENT) {
+                leaderSlot[x] = clusterCount;
+                leaders[clusterCount++] = x;
+                elementCount -= parent[x];
+            }
+        }
+        countByArea = null;
+    }
+
+    // Work done by a bulk build on the forest array (see bulkWork), in the units of the counters.
+    static class Work {
+        long finds, links, relinks;
+
+        void add(Work other) {
+            finds += other.finds;
+            links += other.links;
+            relinks += other.relinks;
+        }
+    }
+
+    // A tally for a bulk build while the counters are on, null otherwise (nothing is counted).
+    Work bulkWork() {
+        return counting ? new Work() : null;
+    }
+
+    // Adds a bulk build's tally (from bulkWork, may be null) to the counters.
+    void addWork(Work work) {
+        if (work != null) {
+            finds += work.finds;
+            links += work.links;
+            relinks += work.relinks;
+        }
+    }
+
+    // Writes the forest of indices [0, length), any extra area and the area histogram to a
+    // checkpoint (see SurveyCheckpoint); indices from length on must be unused.
+    void writeTo(DataOutputStream out, int length) throws IOException {
+        out.writeInt(length);
+        SurveyCheckpoint.writeInts(out, parent, length);
+        out.writeBoolean(extra != null);
+        if (extra != null) {
+            SurveyCheckpoint.writeInts(out, extra, length);
+        }
+        TreeMap<Integer, Integer> areas = histogram();
+        out.writeInt(areas.size());
+        for (Map.Entry<Integer, Integer> e : areas.entrySet()) {
+            out.writeInt(e.getKey());
+            out.writeInt(e.getValue());
+        }
+    }
+
+    static ForestPartition readFrom(DataInputStream in) throws IOException {
+        ForestPartition P = new ForestPartition(in.readInt());
+        SurveyCheckpoint.readInts(in, P.parent);
+        P.rebuildLeaders();
+        if (in.readBoolean()) {
+            P.extra = new int[P.parent.length];
+            SurveyCheckpoint.readInts(in, P.extra);
+            for (int k = 0; k < P.clusterCount; k++) {
+                P.extraTotal += P.extra[P.leaders[k]];
+            }
+        }
+        // The histogram is stored, so a resumed run does not rebuild it from every leader
+        int entries = in.readInt();
+        P.countByArea = new TreeMap<>();
+        for (int k = 0; k < entries; k++) {
+            P.countByArea.put(in.readInt(), in.readInt());
+        }
+        return P;
+    }
+
+    // find on a raw forest array (same encoding as ForestPartition.parent), with path halving.
+    static int find(int[] parent, int x) {
+        while (parent[x] >= 0) {
+            int p = parent[x];
+            if (parent[p] >= 0) {
+                parent[x] = parent[p];
+            }
+            x = parent[x];
+        }
+        return x;
+    }
+
+    // find on a raw forest array that also tallies the call and its halvings in work (if not null).
+    static int find(int[] parent, int x, Work work) {
+        if (work == null) {
+            return find(parent, x);
+        }
+        work.finds++;
+        while (parent[x] >= 0) {
+            int p = parent[x];
+            if (parent[p] >= 0) {
+                parent[x] = parent[p];
+                work.relinks++;
+            }
+            x = parent[x];
+        }
+        return x;
+    }
+
+    // Links two distinct leaders of a raw forest array by size, returns the surviving leader.
+    static int link(int[] parent, int rootP, int rootQ) {
+        // parent holds -size at the leaders, so the more negative one is the larger cluster
+        int larger = parent[rootP] <= parent[rootQ] ? rootP : rootQ;
+        int smaller = larger == rootP ? rootQ : rootP;
+
+        parent[larger] += parent[smaller];
+        parent[smaller] = larger;
+        return larger;
+    }
+
+    private int area(int root) {
+        return -parent[root] + (extra == null ? 0 : extra[root]);
+    }
+
+    // The area histogram, built from the leaders the first time it is needed.
+    private TreeMap<Integer, Integer> histogram() {
+        if (countByArea == null) {
+            countByArea = new TreeMap<>();
+            for (int k = 0; k < clusterCount; k++) {
+                addCount(area(leaders[k]), 1);
+            }
+        }
+        return countByArea;
+    }
+
+    private void addCount(int area, int delta) {
+        countByArea.merge(area, delta, (a, b) -> a + b == 0 ? null : a + b);
+    }
+
+    private void markChanged(int x) {
+        if (changeStamp[x] < 2 * changeEpoch) {
+            changeStamp[x] = 2 * changeEpoch;
+            if (changeCount == changes.length) {
+                changes = Arrays.copyOf(changes, 2 * changeCount);
+            }
+            changes[changeCount++] = x;
+        }
+    }
+
+    // Swap-removes a leader that was just merged away from the dense leader list.
+    private void removeLeader(int x) {
+        int slot = leaderSlot[x];
+        int last = leaders[--clusterCount];
+        leaders[slot] = last;
+        leaderSlot[last] = slot;
+    }
+}
@@ -3,7 +3,10 @@
 // Name: Rayyan Lodhi
 // Student #: 300437765
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class IslandSurvey {
     
@@ -30,137 +33,472 @@ public class IslandSurvey {
     }
     
 
+    // Command-line options (see main); SurveyBatch passes them on to every map it surveys.
+    static class Options {
+        boolean stream, sparse, delta;
+        String path, outPath;
+        ForkJoinPool pool;
+        int ingestThreads = 1;
+        String resumePath, checkpointPath, walPath;
+        int walGroup = 32;
+        SurveyCache cache;
+        SurveyCheckpoint.State resumed;   // a checkpoint the cache has loaded already
+        SurveyMetrics metrics;
+        
+        static Options parse(String[] args) {
+            Options o = new Options();
+            for (int a = 0; a < args.length; a++) {
+                if (args[a].equals("--out") && a + 1 < args.length) {
+                    o.outPath = args[++a];
+                } else if (args[a].equals("--parallel")) {
+                    o.pool = ForkJoinPool.commonPool();
+                } else if (args[a].equals("--stream")) {
+                    o.stream = true;
+                } else if (args[a].equals("--sparse")) {
+                    o.sparse = true;
+                } else if (args[a].equals("--delta")) {
+                    o.delta = true;
+                } else if (args[a].equals("--threads") && a + 1 < args.length) {
+                    o.ingestThreads = Integer.parseInt(args[++a]);
+                } else if (args[a].equals("--resume") && a + 1 < args.length) {
+                    o.resumePath = args[++a];
+                } else if (args[a].equals("--checkpoint") && a + 1 < args.length) {
+                    o.checkpointPath = args[++a];
+                } else if (args[a].equals("--wal") && a + 1 < args.length) {
+                    o.walPath = args[++a];
+                } else if (args[a].equals("--wal-group") && a + 1 < args.length) {
+                    o.walGroup = Integer.parseInt(args[++a]);
+                } else if (args[a].equals("--cache") && a + 1 < args.length) {
+                    o.cache = new SurveyCache(Paths.get(args[++a]));
+                } else if (args[a].equals("--metrics") && a + 1 < args.length) {
+                    o.metrics = new SurveyMetrics(Paths.get(args[++a]));
+                } else {
+                    o.path = args[a];
+                }
+            }
+            return o;
+        }
+        
+        // These options for a run made by the cache: no cache, resuming from a checkpoint it has
+        // loaded (unless resume is null) and saving one to checkpoint.
+        Options forCache(SurveyCheckpoint.State resume, String checkpoint) {
+            Options o = new Options();
+            o.stream = stream;
+            o.sparse = sparse;
+            o.delta = delta;
+            o.pool = pool;
+            o.ingestThreads = ingestThreads;
+            o.resumed = resume;
+            o.checkpointPath = checkpoint;
+            o.metrics = metrics;
+            return o;
+        }
+    }
+    
     // Main method that puts everything together 
     public static void main(String[] args) {
-        Scanner scanner = new Scanner(System.in);
+        // Arguments: optional map file to read instead of stdin, optional --out file instead of stdout,
+        // optional --parallel to label the initial phase on all cores, optional --threads N to
+        // ingest each later phase with N threads, optional --stream to count a phase-less map row by
+        // row without holding it in memory, optional --sparse to keep only the land cells (for huge
+        // maps that are almost all water), optional --resume file to continue from a checkpoint
+        // (the input is then just F and F phase blocks), optional --checkpoint file to save one
+        // after the last phase, optional --wal file (with --resume) to log every phase before it is
+        // applied, committing --wal-group N phases at a time, optional --delta to report only the
+        // islands that changed in each phase (see printDelta), optional --metrics file to write
+        // per-phase counters and timings as JSON lines (see SurveyMetrics)
+        Options options = Options.parse(args);
+        try (SurveyInput input = SurveyInput.open(options.path); SurveyOutput output = SurveyOutput.open(options.outPath)) {
+            survey(input, output, options, new SurveyWorkspace());
+        } catch (Exception e) {
+            System.err.println("Error reading input: " + e.getMessage());
+        }
+        if (options.metrics != null) {
+            try {
+                options.metrics.close();
+            } catch (IOException e) {
+                System.err.println("Error writing metrics: " + e.getMessage());
+            }
+        }
+    }
+    
+    // Surveys one input: the initial map and every phase block, reported to output. The grid and
+    // BP come from workspace, so a worker running many surveys reuses them.
+    static void survey(SurveyInput input, SurveyOutput output, Options options, SurveyWorkspace workspace) throws Exception {
+        boolean stream = options.stream;
+        boolean sparse = options.sparse;
+        boolean delta = options.delta;
+        ForkJoinPool pool = options.pool;
+        int ingestThreads = options.ingestThreads;
+        String resumePath = options.resumePath;
+        String checkpointPath = options.checkpointPath;
+        String walPath = options.walPath;
+        int walGroup = options.walGroup;
         
-        try {
+        if ((stream || sparse) && (resumePath != null || checkpointPath != null)) {
+            throw new IllegalArgumentException("--resume and --checkpoint need the default mode");
+        }
+        if (delta && (stream || sparse || ingestThreads > 1)) {
+            throw new IllegalArgumentException("--delta needs the default mode with one ingestion thread");
+        }
+        if (options.metrics != null && (stream || sparse || ingestThreads > 1)) {
+            throw new IllegalArgumentException("--metrics needs the default mode with one ingestion thread");
+        }
+        if (walPath != null && resumePath == null) {
+            throw new IllegalArgumentException("--wal needs --resume: the log holds the phases after a checkpoint");
+        }
+        if (options.cache != null) {
+            if (stream || sparse || resumePath != null || checkpointPath != null) {
+                throw new IllegalArgumentException("--cache needs the default mode without checkpoint files");
+            }
+            // --delta names islands by their leaders, which the parallel labeler picks differently
+            String tag = !delta ? "IslandSurvey" : pool != null ? "IslandSurvey --delta --parallel" : "IslandSurvey --delta";
+            options.cache.survey(tag, input, output,
+                    (in, out, resume, checkpoint) -> survey(in, out, options.forCache(resume, checkpoint), workspace));
+            return;
+        }
+        
+        // Every phase is measured (JFR events, and the --metrics file if given)
+        SurveyMetrics.Meter meter = new SurveyMetrics.Meter("IslandSurvey", options.metrics);
+        
+        BitGrid map;
+        ForestPartition BP;
+        int numPhases;
+        long seq = 0;   // phases applied since the map (see PhaseLog)
+        if (resumePath != null || options.resumed != null) {
+            // Map and partition come from the checkpoint; only new phases are read
+            SurveyCheckpoint.State state = options.resumed != null ? options.resumed : SurveyCheckpoint.load(Paths.get(resumePath));
+            map = state.map;
+            BP = state.BP;
+            seq = state.sequence;
+            numPhases = input.nextInt();
+        } else {
             // Read the dimensions of the map
-            int rows = scanner.nextInt();
-            int cols = scanner.nextInt();
+            int rows = input.nextInt();
+            int cols = input.nextInt();
+            
+            if (stream) {
+                runStreaming(input, output, rows, cols);
+                return;
+            }
+            if (sparse) {
+                runSparse(input, output, rows, cols);
+                return;
+            }
             
-            // Create the map grid
-            char[][] map = new char[rows][cols];
+            // Create the map grid (one bit per grid point, 1 = black)
+            map = workspace.grid(rows, cols);
             
             // Read the initial map data and instantiate the map
             for (int i = 0; i < rows; i++) {
-                String line = scanner.next();
-                for (int j = 0; j < cols; j++) {
-                    map[i][j] = line.charAt(j);
-                }
+                input.readRow(map, i);
             }
             
             // Read the number of phases F
-            int numPhases = scanner.nextInt();
+            numPhases = input.nextInt();
             
-            // Initialize the partition system for phases
-            Partition<PositionInfo> BP = new Partition<>();
-            Node<PositionInfo>[][] cluster = new Node[rows][cols];
+            // Initialize the partition system for phases; cell (i,j) is index i*cols+j in BP
+            BP = workspace.islands(rows * cols);
             
             // Processing Initial Phase
-            IslandResult result = processInitialPhase(map, rows, cols, BP, cluster);
-            printResults(result);
+            meter.start(BP, null);
+            if (delta) {
+                processInitialPhaseDelta(map, BP, pool);
+                meter.end(0, 0, BP, null);
+                printAll(output, BP);
+            } else {
+                IslandResult result = processInitialPhase(map, BP, pool);
+                meter.end(0, 0, BP, null);
+                printResults(output, result);
+            }
             
             // Add empty line after initial phase if there are more phases
             if (numPhases > 0) {
-                System.out.println();
+                output.println();
+            }
+        }
+        int rows = map.rows();
+        int cols = map.cols();
+        
+        // Phases logged after the checkpoint are applied again (without reports) before new ones
+        PhaseLog log = null;
+        if (walPath != null) {
+            log = new PhaseLog(Paths.get(walPath), walGroup);
+            final BitGrid m = map;
+            final ForestPartition P = BP;
+            seq = log.replay(seq, (coords, L) -> addLand(m, cols, P, positions(coords, L)));
+        }
+        
+        // With several ingestion threads, later phases go into a lock-free copy of BP
+        ConcurrentPartition CP = ingestThreads > 1 ? ConcurrentPartition.copyOf(BP) : null;
+        ExecutorService ingest = CP == null ? null : Executors.newFixedThreadPool(ingestThreads, r -> {
+            Thread t = new Thread(r, "phase-ingest");
+            t.setDaemon(true);
+            return t;
+        });
+        
+        // From here on only changes are reported
+        if (delta) {
+            BP.trackChanges();
+        }
+        
+        // Process subsequent phases
+        for (int phase = 0; phase < numPhases; phase++) {
+            // Read L (number of new land squares for this phase)
+            int L = input.nextInt();
+            
+            // Read L pairs of coordinates (2L numbers total)
+            int[] coords = new int[2 * L];
+            for (int k = 0; k < 2 * L; k++) {
+                coords[k] = input.nextInt();
+            }
+            List<PositionInfo> newPositions = positions(coords, L);
+            
+            // Log the phase before applying it
+            seq++;
+            if (log != null) {
+                log.append(seq, coords, L);
+            }
+            
+            // Process the new phase
+            if (delta) {
+                meter.start(BP, null);
+                addLand(map, cols, BP, newPositions);
+                meter.end(seq, L, BP, null);
+                printDelta(output, BP);
+            } else {
+                IslandResult result;
+                if (CP != null) {
+                    result = processNewPhaseConcurrent(map, rows, cols, CP, newPositions, ingest, ingestThreads);
+                } else {
+                    meter.start(BP, null);
+                    result = processNewPhase(map, rows, cols, BP, newPositions);
+                    meter.end(seq, L, BP, null);
+                }
+                printResults(output, result);
             }
             
-            // Process subsequent phases
-            for (int phase = 0; phase < numPhases; phase++) {
-                // Read L (number of new land squares for this phase)
-                int L = scanner.nextInt();
+            // Add empty line between phases (except after the last phase)
+            if (phase < numPhases - 1) {
+                output.println();
+            }
+        }
+        
+        if (ingest != null) {
+            ingest.shutdown();
+        }
+        
+        if (log != null) {
+            log.commit();
+        }
+        if (checkpointPath != null) {
+            SurveyCheckpoint.save(Paths.get(checkpointPath), map, CP != null ? CP.toForestPartition() : BP, seq);
+            // everything logged is in the checkpoint now (replay skips it anyway by sequence number)
+            if (log != null) {
+                log.reset();
+            }
+        }
+        if (log != null) {
+            log.close();
+        }
+    }
+    
+    // The L (row, col) pairs of a phase as positions.
+    private static List<PositionInfo> positions(int[] coords, int L) {
+        List<PositionInfo> newPositions = new ArrayList<>(L);
+        for (int k = 0; k < L; k++) {
+            newPositions.add(new PositionInfo(coords[2 * k], coords[2 * k + 1]));
+        }
+        return newPositions;
+    }
+    
+    // Streaming mode: rows go through a one-row buffer into a StreamingIslandCounter, so memory
+    // depends on the width of the map only. Later phases would need the whole map, so a map with
+    // phases is rejected (after its rows have been read).
+    private static void runStreaming(SurveyInput input, SurveyOutput output, int rows, int cols) throws IOException {
+        BitGrid rowBuffer = new BitGrid(1, cols);
+        StreamingIslandCounter counter = new StreamingIslandCounter(cols);
+        for (int i = 0; i < rows; i++) {
+            input.readRow(rowBuffer, 0);
+            counter.addRow(rowBuffer, 0);
+        }
+        counter.finish();
+        
+        if (input.nextInt() != 0) {
+            throw new IllegalArgumentException("--stream only supports maps without phases");
+        }
+        
+        // Same output as printResults
+        output.println(counter.islandCount());
+        if (counter.islandCount() == 0) {
+            output.println(-1);
+        }
+        for (Map.Entry<Long, Long> e : counter.sizesDescending().entrySet()) {
+            for (long k = 0; k < e.getValue(); k++) {
+                output.println(e.getKey());
+            }
+        }
+        output.println(counter.totalArea());
+    }
+    
+    // Sparse mode: land cells live in a SparsePartition keyed by row<<32|col and rows are read as
+    // runs of land, so memory and union-find work scale with the land, not with rows*cols.
+    // With run-stored binary input (SurveyConverter --runs) reading is O(runs) as well.
+    private static void runSparse(SurveyInput input, SurveyOutput output, int rows, int cols) throws IOException {
+        SparsePartition BP = new SparsePartition();
+        int[] prevStart = new int[16], prevEnd = new int[16];
+        int prevRuns = 0;
+        
+        for (int i = 0; i < rows; i++) {
+            int runs = input.readRuns(cols);
+            int q = 0;   // first run of row i-1 that can still overlap
+            for (int k = 0; k < runs; k++) {
+                int start = input.runStart(k), end = input.runEnd(k);
                 
-                // Read L pairs of coordinates (2L numbers total)
-                List<PositionInfo> newPositions = new ArrayList<>();
-                for (int k = 0; k < L; k++) {
-                    int i = scanner.nextInt();
-                    int j = scanner.nextInt();
-                    newPositions.add(new PositionInfo(i, j));
+                // the grid points of a run form one cluster
+                int head = BP.makeCluster(SparsePartition.key(i, start));
+                for (int j = start + 1; j < end; j++) {
+                    BP.union(head, BP.makeCluster(SparsePartition.key(i, j)));
                 }
                 
-                // Process the new phase
-                result = processNewPhase(map, rows, cols, BP, cluster, newPositions);
-                printResults(result);
+                // union with every run of row i-1 sharing a column with this one
+                while (q < prevRuns && prevEnd[q] <= start) {
+                    q++;
+                }
+                for (int u = q; u < prevRuns && prevStart[u] < end; u++) {
+                    BP.union(head, BP.indexOf(SparsePartition.key(i - 1, Math.max(start, prevStart[u]))));
+                }
+            }
+            
+            // this row's runs become the previous row's
+            if (runs > prevStart.length) {
+                prevStart = new int[2 * runs];
+                prevEnd = new int[2 * runs];
+            }
+            for (int k = 0; k < runs; k++) {
+                prevStart[k] = input.runStart(k);
+                prevEnd[k] = input.runEnd(k);
+            }
+            prevRuns = runs;
+        }
+        
+        int numPhases = input.nextInt();
+        printResults(output, new IslandResult(BP.numberOfClusters(), BP.clusterSizes(), BP.size()));
+        if (numPhases > 0) {
+            output.println();
+        }
+        
+        int[][] sideDirs = {{0,1},{1,0},{0,-1},{-1,0}};
+        for (int phase = 0; phase < numPhases; phase++) {
+            int L = input.nextInt();
+            for (int k = 0; k < L; k++) {
+                int i = input.nextInt();
+                int j = input.nextInt();
+                int p = BP.makeCluster(SparsePartition.key(i, j));
                 
-                // Add empty line between phases (except after the last phase)
-                if (phase < numPhases - 1) {
-                    System.out.println();
+                // neighbours outside the map are never in BP, so no bounds checks are needed
+                for (int[] d : sideDirs) {
+                    int neighbour = BP.indexOf(SparsePartition.key(i + d[0], j + d[1]));
+                    if (neighbour >= 0) {
+                        BP.union(p, neighbour);
+                    }
                 }
             }
+            printResults(output, new IslandResult(BP.numberOfClusters(), BP.clusterSizes(), BP.size()));
             
-        } catch (Exception e) {
-            System.err.println("Error reading input: " + e.getMessage());
-        } finally {
-            scanner.close();
+            if (phase < numPhases - 1) {
+                output.println();
+            }
         }
     }
     
+    // Delta report of the initial phase: the island count, one "island size" line per island
+    // (an island is named by its leader cell index, as in SurveyServer), then the total area.
+    private static void printAll(SurveyOutput output, ForestPartition BP) throws IOException {
+        output.println(BP.numberOfClusters());
+        for (int k = 0; k < BP.numberOfClusters(); k++) {
+            int leader = BP.leader(k);
+            output.println(leader, BP.clusterSize(leader));
+        }
+        output.println(BP.totalArea());
+    }
+    
+    // Delta report of a later phase: the island count, one "island size" line per island that was
+    // created, grew or absorbed another in this phase, "island 0" for each island merged away
+    // (islands created and merged away within the phase are left out), then the total area.
+    // Costs O(changes) instead of O(islands).
+    private static void printDelta(SurveyOutput output, ForestPartition BP) throws IOException {
+        output.println(BP.numberOfClusters());
+        for (int k = 0; k < BP.changeCount(); k++) {
+            int x = BP.change(k);
+            if (BP.find(x) == x) {
+                output.println(x, BP.clusterSize(x));
+            } else if (!BP.isNew(x)) {
+                output.println(x, 0);
+            }
+        }
+        output.println(BP.totalArea());
+        BP.resetChanges();
+    }
+    
     // Function to print Island Results into Output File
-    private static void printResults(IslandResult result) {
+    private static void printResults(SurveyOutput output, IslandResult result) throws IOException {
         // Output the results
-        System.out.println(result.islandCount);
+        output.println(result.islandCount);
         
         // Output island sizes in decreasing order (each on separate line)
         if (result.islandSizes.isEmpty()) {
-            System.out.println(-1);
+            output.println(-1);
         } 
         
         else {
             for (int size : result.islandSizes) {
-                System.out.println(size);
+                output.println(size);
             }
         }
         
         // Output total area
-        System.out.println(result.totalArea);
+        output.println(result.totalArea);
     }
     
     
     // Processes the initial phase - creating initial partition from the map
-    private static IslandResult processInitialPhase(char[][] map, int rows, int cols, Partition<PositionInfo> BP, Node<PositionInfo>[][] cluster) {        
-        // Create S by T auxiliary array cluster to keep track of cluster positions (map)
-        // with all entries initialized to null (already done in main)
-
-        // for each black grid point i,j:
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                if (map[i][j] == '1') {
-                    // p = BP.makeCluster(info(i,j));
-                    // cluster[i,j] = p
-                    PositionInfo position = new PositionInfo(i, j); // info(i,j) - stores i and j coordinates
-                    cluster[i][j] = BP.makeCluster(position);
-                }
-            }
+    // (band-parallel on the given pool, or sequential when pool is null)
+    private static IslandResult processInitialPhase(BitGrid map, ForestPartition BP, ForkJoinPool pool) {        
+        if (pool != null) {
+            ParallelLabeler.labelIslands(map, BP, pool);
+        } else {
+            labelIslands(map, BP);
         }
-        
-        // for each black grid point i,j:
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                if (map[i][j] == '1') {
-                    // Check right neighbor (i, j+1)
-                    if (j + 1 < cols && map[i][j + 1] == '1') {
-                        if (BP.find(cluster[i][j]) != BP.find(cluster[i][j + 1])) {
-                            BP.union(cluster[i][j], cluster[i][j + 1]);
-                        }
-                    }
-                    
-                    // Check down neighbor (i+1, j)
-                    if (i + 1 < rows && map[i + 1][j] == '1') {
-                        if (BP.find(cluster[i][j]) != BP.find(cluster[i + 1][j])) {
-                            BP.union(cluster[i][j], cluster[i + 1][j]);
-                        }
-                    }
-                    // Note that there is no need to check above and left neighbours as they are redundant.
-                }
-            }
-        }
-        
         return getCurrentResults(BP);
     }
+
+    // Creates a BP cluster for every black grid point and unions side-adjacent ones.
+    // The position of grid point i,j in BP is its cell index i*cols+j, so no auxiliary cluster
+    // array is needed. The map is labeled run by run (see RunLengthRows): the points of a run of
+    // black grid points are one cluster from the start and only overlapping runs of rows i and
+    // i-1 are unioned. BP must be empty.
+    static void labelIslands(BitGrid map, ForestPartition BP) {
+        RunLengthRows.encode(map).labelIslands(BP);
+    }
+    
+    // Initial phase for delta reports: labels the map without building the sorted size list.
+    private static void processInitialPhaseDelta(BitGrid map, ForestPartition BP, ForkJoinPool pool) {
+        if (pool != null) {
+            ParallelLabeler.labelIslands(map, BP, pool);
+        } else {
+            labelIslands(map, BP);
+        }
+    }
     
     // Processes a new phase by adding new black positions and updating islands
-    private static IslandResult processNewPhase(char[][] map, int rows, int cols, Partition<PositionInfo> BP, Node<PositionInfo>[][] cluster, List<PositionInfo> newPositions) {
+    private static IslandResult processNewPhase(BitGrid map, int rows, int cols, ForestPartition BP, List<PositionInfo> newPositions) {
+        addLand(map, cols, BP, newPositions);
+        return getCurrentResults(BP);
+    }
+    
+    // Adds a phase's new black positions to the map and BP (also used to replay logged phases)
+    private static void addLand(BitGrid map, int cols, ForestPartition BP, List<PositionInfo> newPositions) {
         
         // for each point i,j in the new list
         for (PositionInfo pos : newPositions) {
@@ -168,11 +506,10 @@ public class IslandSurvey {
             int j = pos.col;
             
             // p = BP.makeCluster(info(i,j));
-            // cluster[i,j] = p
-            cluster[i][j] = BP.makeCluster(pos);
+            BP.makeCluster(i * cols + j);
             
             // change grid point i,j to black
-            map[i][j] = '1';
+            map.setLand(i, j);
         }
         
         // for each point i,j in the new list
@@ -188,26 +525,68 @@ public class IslandSurvey {
                 int l = j + dir[1];
                 
                 // Check if (k,l) is within bounds and is black
-                if (k >= 0 && k < rows && l >= 0 && l < cols && map[k][l] == '1') {
+                if (map.isLand(k, l)) {
                     
                     // if BP.find(cluster[i,j]) != BP.find(cluster[k,l]) then
-                    if (BP.find(cluster[i][j]) != BP.find(cluster[k][l])) {
-                        BP.union(cluster[i][j], cluster[k][l]);
+                    if (BP.find(i * cols + j) != BP.find(k * cols + l)) {
+                        BP.union(i * cols + j, k * cols + l);
                     }
                 }
             }
         }
-        
-        return getCurrentResults(BP);
     }
     
 
+    // Processes a new phase with several threads: the new positions are split into one batch per
+    // thread and each batch is unioned into CP concurrently. The phase boundary is where every
+    // batch has finished, so the counts read afterwards are exact.
+    private static IslandResult processNewPhaseConcurrent(BitGrid map, int rows, int cols, ConcurrentPartition CP,
+            List<PositionInfo> newPositions, ExecutorService ingest, int threads) throws Exception {
+        
+        List<Callable<Void>> batches = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            List<PositionInfo> batch = newPositions.subList(
+                    newPositions.size() * t / threads, newPositions.size() * (t + 1) / threads);
+            batches.add(() -> {
+                int[][] directions = {{0,1}, {1,0}, {0,-1}, {-1,0}}; // right, down, left, up
+                for (PositionInfo pos : batch) {
+                    int p = CP.makeCluster(pos.row * cols + pos.col);
+                    
+                    // The partition (not the bit grid) says which cells are black: it is safe to
+                    // read while other threads add land. Of two new neighbours added at the same
+                    // time, at least one sees the other and does the union.
+                    for (int[] dir : directions) {
+                        int k = pos.row + dir[0];
+                        int l = pos.col + dir[1];
+                        if (k >= 0 && k < rows && l >= 0 && l < cols && CP.contains(k * cols + l)) {
+                            CP.union(p, k * cols + l);
+                        }
+                    }
+                }
+                return null;
+            });
+        }
+        for (Future<Void> done : ingest.invokeAll(batches)) {
+            done.get();   // rethrows anything a batch failed with
+        }
+        
+        // Phase boundary: bring the map up to date for the next phase
+        for (PositionInfo pos : newPositions) {
+            map.setLand(pos.row, pos.col);
+        }
+        
+        int islandCount = CP.numberOfClusters();
+        List<Integer> islandSizes = CP.clusterSizes();
+        int totalArea = islandSizes.stream().mapToInt(Integer::intValue).sum();
+        return new IslandResult(islandCount, islandSizes, totalArea);
+    }
+
     // Gets the current island analysis results from the partition
-    private static IslandResult getCurrentResults(Partition<PositionInfo> BP) {
+    private static IslandResult getCurrentResults(ForestPartition BP) {
         // Get island count and sizes
         int islandCount = BP.numberOfClusters();
-        List<Integer> islandSizes = BP.clusterSizes(); // Already in decreasing order
-        int totalArea = islandSizes.stream().mapToInt(Integer::intValue).sum();
+        List<Integer> islandSizes = BP.clusterSizes(); // Read off BP's size histogram, already in decreasing order
+        int totalArea = (int) BP.totalArea();          // Kept up to date by BP, no summing needed
         
         return new IslandResult(islandCount, islandSizes, totalArea);
     }
@@ -0,0 +1,98 @@
+// File name: ParallelLabeler.java
+// Fork/join island labeling for the initial phase. The map is cut into horizontal bands that are
+// labeled independently (each writes only its own cells of the shared BP forest), then the rows
+// where two bands meet are stitched with unions as the recursion returns. Produces the same
+// partition, up to the choice of leaders, as IslandSurvey.labelIslands.
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class ParallelLabeler {
+
+    // Bands per worker thread, so uneven bands still keep every core busy.
+    private static final int BANDS_PER_THREAD = 4;
+
+    // Labels every black cell of map into BP, which must still be empty, using pool's threads.
+    public static void labelIslands(BitGrid map, ForestPartition BP, ForkJoinPool pool) {
+        int rows = map.rows();
+        int bands = Math.max(1, Math.min(rows, pool.getParallelism() * BANDS_PER_THREAD));
+        int[] bandStart = new int[bands + 1];
+        for (int b = 0; b <= bands; b++) {
+            bandStart[b] = (int) ((long) rows * b / bands);
+        }
+
+        ForestPartition.Work work = BP.bulkWork();
+        pool.invoke(new BandTask(map, BP.forest(), bandStart, 0, bands, work));
+        BP.rebuildLeaders();
+        BP.addWork(work);
+    }
+
+    // Labels bands [lo, hi); a task only ever touches cells in its own rows. Its finds, links and
+    // halvings (and those of its subtasks, once joined) are tallied in work unless it is null.
+    private static class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BitGrid map;
+        private final int[] forest;
+        private final int[] bandStart;
+        private final int lo, hi;
+        private final ForestPartition.Work work;
+
+        BandTask(BitGrid map, int[] forest, int[] bandStart, int lo, int hi, ForestPartition.Work work) {
+            this.map = map;
+            this.forest = forest;
+            this.bandStart = bandStart;
+            this.lo = lo;
+            this.hi = hi;
+            this.work = work;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo == 1) {
+                labelBand(map, forest, bandStart[lo], bandStart[hi], work);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            // Each half tallies on its own, so the two threads never share a counter
+            ForestPartition.Work upper = work == null ? null : new ForestPartition.Work();
+            ForestPartition.Work lower = work == null ? null : new ForestPartition.Work();
+            invokeAll(new BandTask(map, forest, bandStart, lo, mid, upper),
+                      new BandTask(map, forest, bandStart, mid, hi, lower));
+            if (work != null) {
+                work.add(upper);
+                work.add(lower);
+            }
+
+            // Both halves are done and nothing else touches their rows, so stitch the seam
+            if (bandStart[mid] > bandStart[lo]) {
+                unionWithRowAbove(map, forest, bandStart[mid], work);
+            }
+        }
+    }
+
+    // Sequential labeling of rows [from, to), run by run (see RunLengthRows).
+    private static void labelBand(BitGrid map, int[] forest, int from, int to, ForestPartition.Work work) {
+        RunLengthRows.encode(map, from, to).labelRows(forest, work);
+    }
+
+    // Unions every black cell of row i with the black cell directly above it.
+    private static void unionWithRowAbove(BitGrid map, int[] forest, int i, ForestPartition.Work work) {
+        int cols = map.cols();
+        for (int w = 0; w < map.wordsPerRow(); w++) {
+            long both = map.word(i, w) & map.word(i - 1, w);
+            while (both != 0) {
+                int p = i * cols + (w << 6) + Long.numberOfTrailingZeros(both);
+                both &= both - 1;
+                int rootP = ForestPartition.find(forest, p, work);
+                int rootQ = ForestPartition.find(forest, p - cols, work);
+                if (rootP != rootQ) {
+                    ForestPartition.link(forest, rootP, rootQ);
+                    if (work != null) {
+                        work.links++;
+                    }
+                }
+            }
+        }
+    }
+}
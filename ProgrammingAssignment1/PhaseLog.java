@@ -0,0 +1,148 @@
+// File name: PhaseLog.java
+// Append-only write-ahead log of phases. Every phase is appended before it is applied, so after a
+// crash the survey state is rebuilt from the latest checkpoint plus the phases logged after it.
+// Appends are group-committed: records are buffered and forced to disk once per group of phases
+// (and on commit/close), so an fsync per phase does not throttle ingestion. A crash can lose
+// only the phases of the group that was not yet committed.
+//
+// Record (big-endian): int payload length, payload, int CRC32C of the payload, where the
+// payload is long sequence number, int L, then L pairs of int (row, col). Replay stops at the
+// first record that is cut short or fails its checksum (a torn write) and drops it.
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.zip.CRC32C;
+
+public class PhaseLog implements Closeable {
+
+    // Applies one replayed phase: coords holds L (row, col) pairs.
+    interface Replay {
+        void apply(int[] coords, int L);
+    }
+
+    private static final int HEADER = 4, TRAILER = 4;
+
+    private final FileChannel channel;
+    private final int groupSize;
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    private int pendingPhases;
+    private final CRC32C crc = new CRC32C();
+
+    // Opens (or creates) the log; groupSize phases are committed together.
+    public PhaseLog(Path file, int groupSize) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.groupSize = Math.max(1, groupSize);
+    }
+
+    // Replays, in order, every intact phase with a sequence number above after and returns the
+    // sequence number of the last intact record (or after if there is none). A torn tail is cut
+    // off so new records follow the last intact one.
+    public long replay(long after, Replay apply) throws IOException {
+        long last = after;
+        long pos = 0;
+        long size = channel.size();
+        ByteBuffer head = ByteBuffer.allocate(HEADER);
+        while (pos + HEADER <= size) {
+            head.clear();
+            readFully(head, pos);
+            int length = head.getInt(0);
+            if (length < 12 || pos + HEADER + length + TRAILER > size) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.allocate(length + TRAILER);
+            readFully(record, pos + HEADER);
+            crc.reset();
+            crc.update(record.array(), 0, length);
+            if ((int) crc.getValue() != record.getInt(length)) {
+                break;
+            }
+
+            long seq = record.getLong(0);
+            int L = record.getInt(8);
+            if (length != 12 + 8L * L) {
+                break;
+            }
+            if (seq > after) {
+                int[] coords = new int[2 * L];
+                record.position(12);
+                record.asIntBuffer().get(coords);
+                apply.apply(coords, L);
+            }
+            last = Math.max(last, seq);
+            pos += HEADER + length + TRAILER;
+        }
+        if (pos < size) {
+            channel.truncate(pos);
+            channel.force(true);
+        }
+        channel.position(pos);
+        return last;
+    }
+
+    // Appends phase seq (L (row, col) pairs in coords); commits when the group is full.
+    public void append(long seq, int[] coords, int L) throws IOException {
+        int length = 12 + 8 * L;
+        if (pending.remaining() < HEADER + length + TRAILER) {
+            flushPending();
+            if (pending.capacity() < HEADER + length + TRAILER) {
+                pending = ByteBuffer.allocate(HEADER + length + TRAILER);
+            }
+        }
+        int start = pending.position() + HEADER;
+        pending.putInt(length);
+        pending.putLong(seq);
+        pending.putInt(L);
+        for (int k = 0; k < 2 * L; k++) {
+            pending.putInt(coords[k]);
+        }
+        crc.reset();
+        crc.update(pending.array(), start, length);
+        pending.putInt((int) crc.getValue());
+
+        if (++pendingPhases >= groupSize) {
+            commit();
+        }
+    }
+
+    // Writes and forces every appended phase to disk.
+    public void commit() throws IOException {
+        flushPending();
+        if (pendingPhases > 0) {
+            channel.force(false);
+            pendingPhases = 0;
+        }
+    }
+
+    // Empties the log, e.g. once a checkpoint holds every logged phase.
+    public void reset() throws IOException {
+        pending.clear();
+        pendingPhases = 0;
+        channel.truncate(0);
+        channel.position(0);
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        commit();
+        channel.close();
+    }
+
+    private void flushPending() throws IOException {
+        pending.flip();
+        while (pending.hasRemaining()) {
+            channel.write(pending);
+        }
+        pending.clear();
+    }
+
+    private void readFully(ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, pos + buf.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+}
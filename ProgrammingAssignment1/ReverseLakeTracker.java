@@ -0,0 +1,238 @@
+// File name: ReverseLakeTracker.java
+// Incremental white-partition (WP) maintenance for IslandLakeSurvey.
+// Adding land splits white components, which a union-find cannot undo, so the tracker runs in
+// reverse time: it starts from the final map and each undone phase turns land back into water.
+// White cells are only ever added, and every update is a union touching the changed cells only.
+
+public class ReverseLakeTracker {
+
+    // Lakes collected by one undoLand call: area and a black cell of the island that owns each lake.
+    public static class Lakes {
+        int count;
+        int[] area = new int[16];
+        int[] ownerCell = new int[16];
+
+        void add(int lakeArea, int owner) {
+            if (count == area.length) {
+                area = java.util.Arrays.copyOf(area, count * 2);
+                ownerCell = java.util.Arrays.copyOf(ownerCell, count * 2);
+            }
+            area[count] = lakeArea;
+            ownerCell[count] = owner;
+            count++;
+        }
+
+        void clear() {
+            count = 0;
+        }
+    }
+
+    private final int rows, cols;
+    private final ForestPartition WP;    // white components, 8-neighbor connectivity
+
+    // Per-leader summaries, merged on every union (only the leader's entry is meaningful)
+    private final int[] minCell;         // smallest cell index in the component
+    private final boolean[] touchesEdge; // component has a cell on the map border
+    private final int[] quadSum;         // 4 * Euler number of the component (bit-quad count)
+
+    // Epoch stamps so each leader is reported at most once per undoLand without a HashSet
+    private final int[] stamp;
+    private int epoch;
+
+    private int lakeCount;
+    private int lakeArea;
+
+    // Builds WP for the map after the last phase (every phase's land already applied).
+    public ReverseLakeTracker(BitGrid finalMap) {
+        int rows = finalMap.rows(), cols = finalMap.cols();
+        this.rows = rows;
+        this.cols = cols;
+        int n = rows * cols;
+        WP = new ForestPartition(n);
+        minCell = new int[n];
+        touchesEdge = new boolean[n];
+        quadSum = new int[n];
+        stamp = new int[n];
+
+        // First pass: a singleton component for every white cell
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                if (!finalMap.isLand(i, j)) {
+                    createWhite(i, j);
+                }
+            }
+        }
+        // Second pass: union with the forward half of the 8 neighbors (right, down-left, down, down-right)
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                if (isWhite(i, j)) {
+                    if (isWhite(i, j + 1)) merge(i * cols + j, i * cols + j + 1);
+                    if (isWhite(i + 1, j - 1)) merge(i * cols + j, (i + 1) * cols + j - 1);
+                    if (isWhite(i + 1, j)) merge(i * cols + j, (i + 1) * cols + j);
+                    if (isWhite(i + 1, j + 1)) merge(i * cols + j, (i + 1) * cols + j + 1);
+                }
+            }
+        }
+        // Every 2x2 window (including the ones hanging over the border) belongs to at most one
+        // white component, since all cells of a window are 8-adjacent to each other.
+        for (int i = -1; i < rows; i++) {
+            for (int j = -1; j < cols; j++) {
+                int q = quad(i, j);
+                if (q != 0) {
+                    quadSum[WP.find(anyWhiteInWindow(i, j))] += q;
+                }
+            }
+        }
+
+        for (int k = 0; k < WP.numberOfClusters(); k++) {
+            int leader = WP.leader(k);
+            if (isLake(leader)) {
+                lakeCount++;
+                lakeArea += WP.clusterSize(leader);
+            }
+        }
+    }
+
+    // Number of lakes on the current (reverse-time) map.
+    public int lakeCount() {
+        return lakeCount;
+    }
+
+    // Total area of the lakes on the current map.
+    public int lakeArea() {
+        return lakeArea;
+    }
+
+    // Lists every lake on the current map.
+    public void currentLakes(Lakes out) {
+        out.clear();
+        for (int k = 0; k < WP.numberOfClusters(); k++) {
+            int leader = WP.leader(k);
+            if (isLake(leader)) {
+                out.add(WP.clusterSize(leader), ownerCell(leader));
+            }
+        }
+    }
+
+    // Turns the given land cells back into water (undoing one phase).
+    // filled receives the lakes that exist after the undo and are touched by it, i.e. the lakes the
+    // phase fills in going forward; formed receives the lakes that existed before the undo and were
+    // touched by it, i.e. the lakes the phase creates going forward.
+    public void undoLand(int[] cells, int from, int to, Lakes formed, Lakes filled) {
+        formed.clear();
+        filled.clear();
+
+        // Lakes about to be merged away: report them while the map still shows this phase's land
+        epoch++;
+        for (int k = from; k < to; k++) {
+            int i = cells[k] / cols, j = cells[k] % cols;
+            for (int di = -1; di <= 1; di++) {
+                for (int dj = -1; dj <= 1; dj++) {
+                    if (isWhite(i + di, j + dj)) {
+                        int leader = WP.find((i + di) * cols + j + dj);
+                        if (stamp[leader] != epoch) {
+                            stamp[leader] = epoch;
+                            if (isLake(leader)) {
+                                formed.add(WP.clusterSize(leader), ownerCell(leader));
+                                lakeCount--;
+                                lakeArea -= WP.clusterSize(leader);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        for (int k = from; k < to; k++) {
+            addWhite(cells[k] / cols, cells[k] % cols);
+        }
+
+        // Components that absorbed the new water may be lakes now
+        epoch++;
+        for (int k = from; k < to; k++) {
+            int leader = WP.find(cells[k]);
+            if (stamp[leader] != epoch) {
+                stamp[leader] = epoch;
+                if (isLake(leader)) {
+                    filled.add(WP.clusterSize(leader), ownerCell(leader));
+                    lakeCount++;
+                    lakeArea += WP.clusterSize(leader);
+                }
+            }
+        }
+    }
+
+    // A component is a lake when it is interior and has no holes (Euler number 1). An interior
+    // white component without holes is bounded by a single 4-connected ring of land, so it touches
+    // exactly one island by sides; every hole would hold another island.
+    private boolean isLake(int leader) {
+        return !touchesEdge[leader] && quadSum[leader] == 4;
+    }
+
+    // The cell above the topmost-leftmost cell of a lake is land of the owning island.
+    private int ownerCell(int leader) {
+        return minCell[leader] - cols;
+    }
+
+    // Adds one white cell, unions it with its white 8-neighbors and updates the Euler counts.
+    private void addWhite(int i, int j) {
+        if (isWhite(i, j)) {
+            return;
+        }
+        int before = quad(i - 1, j - 1) + quad(i - 1, j) + quad(i, j - 1) + quad(i, j);
+        int cell = createWhite(i, j);
+        int after = quad(i - 1, j - 1) + quad(i - 1, j) + quad(i, j - 1) + quad(i, j);
+
+        for (int di = -1; di <= 1; di++) {
+            for (int dj = -1; dj <= 1; dj++) {
+                if ((di != 0 || dj != 0) && isWhite(i + di, j + dj)) {
+                    merge(cell, (i + di) * cols + j + dj);
+                }
+            }
+        }
+        quadSum[WP.find(cell)] += after - before;
+    }
+
+    private int createWhite(int i, int j) {
+        int cell = WP.makeCluster(i * cols + j);
+        minCell[cell] = cell;
+        touchesEdge[cell] = i == 0 || i == rows - 1 || j == 0 || j == cols - 1;
+        quadSum[cell] = 0;
+        return cell;
+    }
+
+    // Union that also combines the per-leader summaries.
+    private void merge(int p, int q) {
+        int rootP = WP.find(p), rootQ = WP.find(q);
+        if (rootP == rootQ) {
+            return;
+        }
+        int leader = WP.union(rootP, rootQ);
+        int other = leader == rootP ? rootQ : rootP;
+        minCell[leader] = Math.min(minCell[leader], minCell[other]);
+        touchesEdge[leader] |= touchesEdge[other];
+        quadSum[leader] += quadSum[other];
+    }
+
+    private boolean isWhite(int i, int j) {
+        return i >= 0 && i < rows && j >= 0 && j < cols && WP.contains(i * cols + j);
+    }
+
+    // Bit-quad contribution of the 2x2 window with top-left (i,j) for 8-connectivity:
+    // +1 for one white cell, -1 for three, -2 for two diagonal ones (Gray's formula, times 4).
+    private int quad(int i, int j) {
+        boolean a = isWhite(i, j), b = isWhite(i, j + 1), c = isWhite(i + 1, j), d = isWhite(i + 1, j + 1);
+        int n = (a ? 1 : 0) + (b ? 1 : 0) + (c ? 1 : 0) + (d ? 1 : 0);
+        if (n == 1) return 1;
+        if (n == 3) return -1;
+        if (n == 2 && a == d) return -2;
+        return 0;
+    }
+
+    private int anyWhiteInWindow(int i, int j) {
+        if (isWhite(i, j)) return i * cols + j;
+        if (isWhite(i, j + 1)) return i * cols + j + 1;
+        if (isWhite(i + 1, j)) return (i + 1) * cols + j;
+        return (i + 1) * cols + j + 1;
+    }
+}
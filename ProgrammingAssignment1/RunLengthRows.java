@@ -0,0 +1,127 @@
+// File name: RunLengthRows.java
+// Run-length encoded map: each row is stored as its runs of land [start, end), all rows packed
+// into two int arrays with a row index (row i owns runs rowStart[i] .. rowStart[i+1]-1).
+// Islands are labeled run by run: a run is one cluster from the start, and only runs of
+// consecutive rows that share a column are unioned, so coastline rasters with long runs need a
+// small fraction of the union-find operations of a cell-by-cell pass. An encoding may cover just
+// a band of the map's rows (see ParallelLabeler); its row i is then map row firstRow + i.
+
+import java.util.Arrays;
+
+public class RunLengthRows {
+
+    private final int firstRow, rows, cols;
+    private final int[] rowStart;   // rows + 1 entries
+    private int[] runStart, runEnd;
+    private int runCount;
+
+    private RunLengthRows(int firstRow, int rows, int cols) {
+        this.firstRow = firstRow;
+        this.rows = rows;
+        this.cols = cols;
+        this.rowStart = new int[rows + 1];
+        this.runStart = new int[Math.max(16, rows)];
+        this.runEnd = new int[runStart.length];
+    }
+
+    // Encodes every row of the map, scanning it a word at a time.
+    public static RunLengthRows encode(BitGrid map) {
+        return encode(map, 0, map.rows());
+    }
+
+    // Encodes map rows [from, to).
+    public static RunLengthRows encode(BitGrid map, int from, int to) {
+        RunLengthRows rle = new RunLengthRows(from, to - from, map.cols());
+        for (int i = 0; i < rle.rows; i++) {
+            rle.rowStart[i] = rle.runCount;
+            for (int start = map.nextLand(from + i, 0); start < map.cols(); ) {
+                int end = map.nextWater(from + i, start);
+                rle.addRun(start, end);
+                start = map.nextLand(from + i, end);
+            }
+        }
+        rle.rowStart[rle.rows] = rle.runCount;
+        return rle;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    // Total number of runs; the runs of row i are rowStart(i) .. rowStart(i+1)-1.
+    public int runCount() {
+        return runCount;
+    }
+
+    public int rowStart(int i) {
+        return rowStart[i];
+    }
+
+    // First column of run k.
+    public int start(int k) {
+        return runStart[k];
+    }
+
+    // Column just past the end of run k.
+    public int end(int k) {
+        return runEnd[k];
+    }
+
+    // Fills an empty BP with the islands of the map (cell index i*cols+j, 4-neighbor). Works on
+    // BP's forest array: every cell of a run points straight at the run's first cell, which
+    // starts as a leader of size run length; runs of consecutive rows that overlap are linked.
+    public void labelIslands(ForestPartition BP) {
+        ForestPartition.Work work = BP.bulkWork();
+        labelRows(BP.forest(), work);
+        BP.rebuildLeaders();
+        BP.addWork(work);
+    }
+
+    // The run linking of labelIslands on a raw forest, touching only the cells of these rows; the
+    // caller rebuilds the leaders (ParallelLabeler labels several bands into one forest). The
+    // finds, links and halvings are tallied in work unless it is null.
+    void labelRows(int[] parent, ForestPartition.Work work) {
+        for (int i = 0; i < rows; i++) {
+            int base = (firstRow + i) * cols;
+            int q = i > 0 ? rowStart[i - 1] : 0;   // first run of row i-1 that can still overlap
+            int prevEnd = i > 0 ? rowStart[i] : 0;
+
+            for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                int start = runStart[k], end = runEnd[k];
+                int head = base + start;
+                parent[head] = -(end - start);
+                for (int p = head + 1; p < base + end; p++) {
+                    parent[p] = head;
+                }
+
+                // Link with every run of row i-1 sharing at least one column with [start, end)
+                while (q < prevEnd && runEnd[q] <= start) {
+                    q++;
+                }
+                int root = head;
+                for (int u = q; u < prevEnd && runStart[u] < end; u++) {
+                    int other = ForestPartition.find(parent, base - cols + runStart[u], work);
+                    if (other != root) {
+                        root = ForestPartition.link(parent, root, other);
+                        if (work != null) {
+                            work.links++;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void addRun(int start, int end) {
+        if (runCount == runStart.length) {
+            runStart = Arrays.copyOf(runStart, runCount * 2);
+            runEnd = Arrays.copyOf(runEnd, runCount * 2);
+        }
+        runStart[runCount] = start;
+        runEnd[runCount++] = end;
+    }
+}
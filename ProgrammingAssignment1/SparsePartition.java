@@ -0,0 +1,150 @@
+// File name: SparsePartition.java
+// Partition ADT for maps that are almost all water. Land cells are keyed by row<<32|col in a
+// primitive open-addressing hash table (no boxing, no dense grid-sized arrays); each cell gets
+// the next dense index and the union-find forest is kept over those indices. Memory and time
+// therefore scale with the number of land cells, not with rows*cols.
+
+import java.util.*;
+
+public class SparsePartition {
+
+    private static final int EMPTY = -1;
+
+    // Hash table: keys[s] holds a cell key, slot[s] its index (EMPTY if the slot is free).
+    // Linear probing, power-of-two size, at most half full.
+    private long[] keys;
+    private int[] slot;
+    private int mask;
+
+    // Same encoding as ForestPartition: parent[x] >= 0 is the next index towards the leader,
+    // parent[x] < 0 marks a leader and -parent[x] is the size of its cluster.
+    private int[] parent;
+    private int size;   // number of cells (indices 0 .. size-1)
+
+    // Dense list of leaders so clusters can be listed without scanning every index
+    private int[] leaders;
+    private int[] leaderSlot;
+    private int clusterCount;
+
+    public SparsePartition() {
+        keys = new long[1 << 10];
+        slot = new int[keys.length];
+        Arrays.fill(slot, EMPTY);
+        mask = keys.length - 1;
+        parent = new int[1 << 9];
+        leaders = new int[parent.length];
+        leaderSlot = new int[parent.length];
+    }
+
+    // Key of grid point (row, col).
+    public static long key(int row, int col) {
+        return (long) row << 32 | (col & 0xFFFFFFFFL);
+    }
+
+    // Index of the cell with this key, or -1 if it is not in the partition.
+    public int indexOf(long key) {
+        for (int s = hash(key) & mask; slot[s] != EMPTY; s = (s + 1) & mask) {
+            if (keys[s] == key) {
+                return slot[s];
+            }
+        }
+        return -1;
+    }
+
+    // Create singleton cluster for the cell with this key, return its index.
+    public int makeCluster(long key) {
+        if (2 * (size + 1) > keys.length) {
+            rehash(keys.length * 2);
+        }
+        if (size == parent.length) {
+            parent = Arrays.copyOf(parent, size * 2);
+            leaders = Arrays.copyOf(leaders, size * 2);
+            leaderSlot = Arrays.copyOf(leaderSlot, size * 2);
+        }
+        int x = size++;
+        insert(key, x);
+        parent[x] = -1;
+        leaderSlot[x] = clusterCount;
+        leaders[clusterCount++] = x;
+        return x;
+    }
+
+    // Returns the leader of x's cluster, with path halving.
+    public int find(int x) {
+        return ForestPartition.find(parent, x);
+    }
+
+    // Merges clusters containing p and q (smaller tree hangs under larger), returns the new leader.
+    public int union(int p, int q) {
+        int rootP = find(p);
+        int rootQ = find(q);
+        if (rootP == rootQ) {
+            return rootP;
+        }
+        int larger = ForestPartition.link(parent, rootP, rootQ);
+        removeLeader(larger == rootP ? rootQ : rootP);
+        return larger;
+    }
+
+    // Returns number of clusters.
+    public int numberOfClusters() {
+        return clusterCount;
+    }
+
+    // Returns number of cells.
+    public int size() {
+        return size;
+    }
+
+    // Returns the size of the cluster containing p.
+    public int clusterSize(int p) {
+        return -parent[find(p)];
+    }
+
+    // Returns the size of each cluster in decreasing order.
+    public List<Integer> clusterSizes() {
+        ArrayList<Integer> sizes = new ArrayList<>(clusterCount);
+        for (int k = 0; k < clusterCount; k++) {
+            sizes.add(-parent[leaders[k]]);
+        }
+        sizes.sort(Comparator.reverseOrder());
+        return sizes;
+    }
+
+    private void insert(long key, int x) {
+        int s = hash(key) & mask;
+        while (slot[s] != EMPTY) {
+            s = (s + 1) & mask;
+        }
+        keys[s] = key;
+        slot[s] = x;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldSlot = slot;
+        keys = new long[capacity];
+        slot = new int[capacity];
+        Arrays.fill(slot, EMPTY);
+        mask = capacity - 1;
+        for (int s = 0; s < oldKeys.length; s++) {
+            if (oldSlot[s] != EMPTY) {
+                insert(oldKeys[s], oldSlot[s]);
+            }
+        }
+    }
+
+    // Fibonacci hashing; the high half is folded in so the row affects the low (slot) bits.
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // Swap-removes a leader that was just merged away from the dense leader list.
+    private void removeLeader(int x) {
+        int s = leaderSlot[x];
+        int last = leaders[--clusterCount];
+        leaders[s] = last;
+        leaderSlot[last] = s;
+    }
+}
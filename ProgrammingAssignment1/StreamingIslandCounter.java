@@ -0,0 +1,171 @@
+// File name: StreamingIslandCounter.java
+// Counts islands of a map fed one row at a time, without keeping the map. Only the runs of land
+// in the previous and current row are kept, each tagged with a label from a small union-find.
+// An island is finished (and its size recorded) as soon as no run of the current row belongs to
+// it, and its labels are recycled, so memory depends on the number of columns, not rows.
+
+import java.util.*;
+
+public class StreamingIslandCounter {
+
+    private final int cols;
+
+    // Land runs [start, end) of the previous and the current row with their labels
+    private int[] prevStart, prevEnd, prevLabel;
+    private int prevRuns;
+    private int[] curStart, curEnd, curLabel;
+    private int curRuns;
+
+    // Union-find over labels; size is the land area of a root label's island so far
+    private final int[] parent;
+    private final long[] size;
+    private final int[] freeLabels;   // stack of unused labels
+    private int freeCount;
+
+    // Labels in use: roots referenced by the previous row plus labels created for this row
+    private int[] live;
+    private int liveCount;
+    private final int[] stamp;        // label -> row in which a current run last referenced it
+    private int row;
+
+    // Finished islands: area -> number of islands with that area
+    private final TreeMap<Long, Long> countBySize = new TreeMap<>();
+    private long islandCount;
+    private long totalArea;
+
+    public StreamingIslandCounter(int cols) {
+        this.cols = cols;
+        int maxRuns = cols / 2 + 1;
+        prevStart = new int[maxRuns];
+        prevEnd = new int[maxRuns];
+        prevLabel = new int[maxRuns];
+        curStart = new int[maxRuns];
+        curEnd = new int[maxRuns];
+        curLabel = new int[maxRuns];
+
+        // At most one label per run of the previous and the current row is alive at once
+        int maxLabels = 2 * maxRuns;
+        parent = new int[maxLabels];
+        size = new long[maxLabels];
+        stamp = new int[maxLabels];
+        live = new int[maxLabels];
+        freeLabels = new int[maxLabels];
+        for (int label = maxLabels - 1; label >= 0; label--) {
+            freeLabels[freeCount++] = label;
+        }
+        Arrays.fill(stamp, -1);
+    }
+
+    // Feeds row i of grid (usually a one-row buffer) as the next row of the map.
+    public void addRow(BitGrid grid, int i) {
+        curRuns = 0;
+        int q = 0;   // first previous-row run that can still overlap the current run
+        for (int start = grid.nextLand(i, 0); start < cols; start = grid.nextLand(i, start)) {
+            int end = grid.nextWater(i, start);
+
+            // Join every previous-row run sharing at least one column with [start, end)
+            int label = -1;
+            while (q < prevRuns && prevEnd[q] <= start) {
+                q++;
+            }
+            for (int k = q; k < prevRuns && prevStart[k] < end; k++) {
+                label = label < 0 ? find(prevLabel[k]) : union(label, prevLabel[k]);
+            }
+            if (label < 0) {
+                label = newLabel();
+            }
+            size[label] += end - start;
+
+            curStart[curRuns] = start;
+            curEnd[curRuns] = end;
+            curLabel[curRuns++] = label;
+            start = end;
+        }
+        endRow();
+    }
+
+    // Call after the last row: every island still open is finished.
+    public void finish() {
+        curRuns = 0;
+        endRow();
+    }
+
+    public long islandCount() {
+        return islandCount;
+    }
+
+    public long totalArea() {
+        return totalArea;
+    }
+
+    // Island sizes in decreasing order, as size -> number of islands of that size.
+    public NavigableMap<Long, Long> sizesDescending() {
+        return countBySize.descendingMap();
+    }
+
+    // Points the current runs at their final roots, retires islands the current row no longer
+    // touches and recycles every label that is not a root referenced by the current row.
+    private void endRow() {
+        row++;
+        for (int k = 0; k < curRuns; k++) {
+            curLabel[k] = find(curLabel[k]);
+            stamp[curLabel[k]] = row;
+        }
+
+        int kept = 0;
+        for (int k = 0; k < liveCount; k++) {
+            int label = live[k];
+            if (parent[label] == label && stamp[label] == row) {
+                live[kept++] = label;
+                continue;
+            }
+            if (parent[label] == label) {
+                retire(size[label]);
+            }
+            freeLabels[freeCount++] = label;
+        }
+        liveCount = kept;
+
+        // The current row becomes the previous row
+        int[] t = prevStart; prevStart = curStart; curStart = t;
+        t = prevEnd; prevEnd = curEnd; curEnd = t;
+        t = prevLabel; prevLabel = curLabel; curLabel = t;
+        prevRuns = curRuns;
+    }
+
+    private void retire(long islandSize) {
+        islandCount++;
+        totalArea += islandSize;
+        countBySize.merge(islandSize, 1L, Long::sum);
+    }
+
+    private int newLabel() {
+        int label = freeLabels[--freeCount];
+        parent[label] = label;
+        size[label] = 0;
+        live[liveCount++] = label;
+        return label;
+    }
+
+    private int find(int x) {
+        while (parent[x] != x) {
+            parent[x] = parent[parent[x]];
+            x = parent[x];
+        }
+        return x;
+    }
+
+    // Union by size; a is already a root, returns the surviving root.
+    private int union(int a, int b) {
+        b = find(b);
+        if (a == b) {
+            return a;
+        }
+        if (size[a] < size[b]) {
+            int t = a; a = b; b = t;
+        }
+        parent[b] = a;
+        size[a] += size[b];
+        return a;
+    }
+}
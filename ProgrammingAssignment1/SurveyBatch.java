@@ -0,0 +1,146 @@
+// File name: SurveyBatch.java
+// Runs IslandSurvey (or IslandLakeSurvey with --lakes) over many independent map files in one
+// JVM, on a bounded pool of worker threads, instead of starting one JVM per file. Each worker
+// keeps its own SurveyWorkspace, so grids and partitions are reused from map to map, and the
+// survey code stays warm (JIT-compiled) for the whole batch.
+//
+// Usage: java SurveyBatch [--lakes] [--workers N] [--out-dir DIR] (directory | manifest) [-- survey options]
+// A directory means every *.txt / *.bin map in it (not the *Output.txt files); a manifest is a
+// text file with one map path per line (relative paths are taken from the manifest's directory).
+// The results of mapN.txt go to mapNOutput.txt next to it (or in --out-dir). Options after --
+// go to every survey, e.g. -- --parallel or -- --delta; options naming files are not allowed,
+// except --metrics FILE, which collects the phases of every survey.
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SurveyBatch {
+
+    public static void main(String[] args) {
+        boolean lakes = false;
+        int workers = Runtime.getRuntime().availableProcessors();
+        String outDir = null;
+        String source = null;
+        String[] surveyArgs = new String[0];
+        for (int a = 0; a < args.length; a++) {
+            if (args[a].equals("--lakes")) {
+                lakes = true;
+            } else if (args[a].equals("--workers") && a + 1 < args.length) {
+                workers = Integer.parseInt(args[++a]);
+            } else if (args[a].equals("--out-dir") && a + 1 < args.length) {
+                outDir = args[++a];
+            } else if (args[a].equals("--")) {
+                surveyArgs = Arrays.copyOfRange(args, a + 1, args.length);
+                break;
+            } else {
+                source = args[a];
+            }
+        }
+
+        try {
+            if (source == null) {
+                throw new IllegalArgumentException("no map directory or manifest given");
+            }
+            List<Path> maps = listMaps(Paths.get(source));
+            Path target = outDir == null ? null : Files.createDirectories(Paths.get(outDir));
+            int failed = run(maps, target, lakes, surveyArgs, Math.max(1, workers));
+            System.out.println(maps.size() + " maps surveyed, " + failed + " failed");
+        } catch (Exception e) {
+            System.err.println("Error running batch: " + e.getMessage());
+        }
+    }
+
+    // Surveys every map on workers threads; returns the number of maps that failed (each failure
+    // is reported on stderr and its partial output removed, the other maps still run).
+    static int run(List<Path> maps, Path outDir, boolean lakes, String[] surveyArgs, int workers) throws InterruptedException {
+        // Options are parsed once and shared; the surveys only read them
+        IslandSurvey.Options islandOptions = lakes ? null : IslandSurvey.Options.parse(surveyArgs);
+        IslandLakeSurvey.Options lakeOptions = lakes ? IslandLakeSurvey.Options.parse(surveyArgs) : null;
+        if (lakes ? lakeOptions.path != null || lakeOptions.outPath != null || lakeOptions.resumePath != null
+                        || lakeOptions.checkpointPath != null || lakeOptions.walPath != null
+                  : islandOptions.path != null || islandOptions.outPath != null || islandOptions.resumePath != null
+                        || islandOptions.checkpointPath != null || islandOptions.walPath != null) {
+            throw new IllegalArgumentException("survey options naming files are not supported in a batch");
+        }
+
+        ThreadLocal<SurveyWorkspace> workspaces = ThreadLocal.withInitial(SurveyWorkspace::new);
+        AtomicInteger failed = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "survey-batch");
+            t.setDaemon(true);
+            return t;
+        });
+        for (Path map : maps) {
+            pool.execute(() -> {
+                Path out = outputPath(map, outDir);
+                try (SurveyInput input = SurveyInput.open(map.toString());
+                     SurveyOutput output = SurveyOutput.open(out.toString())) {
+                    if (lakes) {
+                        IslandLakeSurvey.survey(input, output, lakeOptions, workspaces.get());
+                    } else {
+                        IslandSurvey.survey(input, output, islandOptions, workspaces.get());
+                    }
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    System.err.println(map + ": " + e.getMessage());
+                    try {
+                        Files.deleteIfExists(out);
+                    } catch (IOException ignored) {
+                        // the error above already names the map
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+        // --metrics: every survey appended its phases to the one file
+        SurveyMetrics metrics = lakes ? lakeOptions.metrics : islandOptions.metrics;
+        if (metrics != null) {
+            try {
+                metrics.close();
+            } catch (IOException e) {
+                System.err.println("Error writing metrics: " + e.getMessage());
+            }
+        }
+        return failed.get();
+    }
+
+    // The maps named by a directory (its *.txt and *.bin files except *Output.txt, in name order)
+    // or by a manifest file.
+    static List<Path> listMaps(Path source) throws IOException {
+        List<Path> maps = new ArrayList<>();
+        if (Files.isDirectory(source)) {
+            try (DirectoryStream<Path> dir = Files.newDirectoryStream(source)) {
+                for (Path p : dir) {
+                    String name = p.getFileName().toString();
+                    if ((name.endsWith(".txt") || name.endsWith(".bin")) && !name.endsWith("Output.txt") && Files.isRegularFile(p)) {
+                        maps.add(p);
+                    }
+                }
+            }
+            Collections.sort(maps);
+        } else {
+            Path base = source.toAbsolutePath().getParent();
+            for (String line : Files.readAllLines(source, StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    maps.add(base.resolve(line));
+                }
+            }
+        }
+        return maps;
+    }
+
+    // mapN.txt -> mapNOutput.txt, next to the map or in outDir.
+    static Path outputPath(Path map, Path outDir) {
+        String name = map.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String output = (dot > 0 ? name.substring(0, dot) : name) + "Output.txt";
+        return outDir == null ? map.resolveSibling(output) : outDir.resolve(output);
+    }
+}
@@ -0,0 +1,346 @@
+// File name: SurveyBenchmark.java
+// Benchmarks the Partition ADT implementations and the two survey programs, JMH style but with no
+// dependencies (the project has no build file): every benchmark runs in its own forked JVM so
+// the JIT profile of one engine does not slow down the next, does warmup iterations first and
+// then timed ones, and feeds every result into a sink so no work is optimized away.
+//
+// Partition benchmarks: for each engine (list Partition, ForestPartition, SparsePartition,
+// ConcurrentPartition) and generated map, one iteration builds a fresh partition and times four
+// stages over the map's land cells: makeCluster, union of side neighbours, find, clusterSizes.
+// Survey benchmarks: one iteration runs IslandSurvey or IslandLakeSurvey on a whole input held in
+// memory (SurveyGenerator maps of several sizes, densities and phase counts, plus the mapN.txt files).
+//
+// Reported per benchmark: throughput (operations or surveys per second), the fastest, median and
+// slowest time of one iteration (or stage), and the bytes allocated per operation (HotSpot thread
+// allocation counter, averaged over the iterations). With 5-20 iterations there are too few
+// samples for tail percentiles, so none are reported.
+//
+// Usage: java SurveyBenchmark [--quick] [--warmup N] [--iterations N] [--filter TEXT]
+//                             [--fixtures DIR] [--no-fork]
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+public class SurveyBenchmark {
+
+    // The list Partition relabels the smaller cluster and removes it from an ArrayList on every
+    // union (quadratic overall), so it only runs on maps up to this many cells.
+    private static final int LIST_PARTITION_MAX_CELLS = 1 << 16;
+
+    private static final String[] STAGES = {"makeCluster", "union", "find", "clusterSizes"};
+
+    static volatile long sink;   // consumes results so the JIT cannot drop the work
+
+    private static int warmup = 5;
+    private static int iterations = 20;
+    private static boolean quick;
+    private static String fixtures = ".";
+
+    public static void main(String[] args) throws Exception {
+        String filter = null;
+        String only = null;
+        boolean fork = true;
+        for (int a = 0; a < args.length; a++) {
+            if (args[a].equals("--quick")) {
+                quick = true;
+                warmup = 2;
+                iterations = 5;
+            } else if (args[a].equals("--warmup") && a + 1 < args.length) {
+                warmup = Integer.parseInt(args[++a]);
+            } else if (args[a].equals("--iterations") && a + 1 < args.length) {
+                iterations = Integer.parseInt(args[++a]);
+            } else if (args[a].equals("--filter") && a + 1 < args.length) {
+                filter = args[++a];
+            } else if (args[a].equals("--fixtures") && a + 1 < args.length) {
+                fixtures = args[++a];
+            } else if (args[a].equals("--no-fork")) {
+                fork = false;
+            } else if (args[a].equals("--only") && a + 1 < args.length) {
+                only = args[++a];   // used by the forked JVMs
+            }
+        }
+
+        if (only != null) {
+            run(only);
+            return;
+        }
+        System.out.printf("%-44s %-13s %14s %10s %10s %10s %12s%n",
+                "benchmark", "stage", "ops/s", "min ms", "median ms", "max ms", "alloc B/op");
+        for (String name : benchmarks()) {
+            if (filter != null && !name.contains(filter)) {
+                continue;
+            }
+            if (fork) {
+                runForked(name);
+            } else {
+                run(name);
+            }
+        }
+    }
+
+    // Benchmark names: "engine size density" for partitions, "program size density phases" for
+    // generated survey inputs and "program file" for the fixtures.
+    static List<String> benchmarks() {
+        int[] sizes = quick ? new int[] {64, 256} : new int[] {64, 256, 1024};
+        double[] densities = {0.4, 0.6};
+        int[] phaseCounts = quick ? new int[] {0, 8} : new int[] {0, 32};
+        List<String> names = new ArrayList<>();
+        for (String engine : new String[] {"Partition", "ForestPartition", "SparsePartition", "ConcurrentPartition"}) {
+            for (int n : sizes) {
+                for (double d : densities) {
+                    if (!engine.equals("Partition") || n * n <= LIST_PARTITION_MAX_CELLS) {
+                        names.add(engine + " " + n + " " + d);
+                    }
+                }
+            }
+        }
+        for (String program : new String[] {"IslandSurvey", "IslandLakeSurvey"}) {
+            for (int n : sizes) {
+                for (double d : densities) {
+                    for (int f : phaseCounts) {
+                        names.add(program + " " + n + " " + d + " " + f);
+                    }
+                }
+            }
+            for (int k = 1; k <= 6; k++) {
+                if (Files.exists(Paths.get(fixtures, "map" + k + ".txt"))) {
+                    names.add(program + " map" + k + ".txt");
+                }
+            }
+        }
+        return names;
+    }
+
+    // Runs one benchmark in a child JVM with the same class path and settings, relaying its lines.
+    private static void runForked(String name) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(Arrays.asList(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), "SurveyBenchmark",
+                "--warmup", String.valueOf(warmup), "--iterations", String.valueOf(iterations),
+                "--fixtures", fixtures, "--only", name));
+        if (quick) {
+            command.add("--quick");
+        }
+        Process child = new ProcessBuilder(command).inheritIO().start();
+        if (child.waitFor() != 0) {
+            System.out.println(name + ": forked run failed");
+        }
+    }
+
+    private static void run(String name) throws Exception {
+        String[] p = name.split(" ");
+        if (p[0].endsWith("Partition")) {
+            benchPartition(name, p[0], Integer.parseInt(p[1]), Double.parseDouble(p[2]));
+        } else if (p.length == 2) {
+            benchSurvey(name, p[0], Files.readAllBytes(Paths.get(fixtures, p[1])));
+        } else {
+            int n = Integer.parseInt(p[1]);
+            benchSurvey(name, p[0], textInput(n, n, Double.parseDouble(p[2]), Integer.parseInt(p[3]), 42));
+        }
+    }
+
+    // ---- Partition benchmarks ----
+
+    // The partition operations a benchmark times, over cell indices of an n x n map.
+    interface Ops {
+        void makeCluster(int cell);
+        void union(int p, int q);
+        int find(int cell);
+        List<Integer> clusterSizes();
+    }
+
+    static Ops newOps(String engine, int n) {
+        switch (engine) {
+            case "Partition":
+                return new Ops() {
+                    final Partition<Integer> P = new Partition<>();
+                    @SuppressWarnings({"unchecked", "rawtypes"})
+                    final Node<Integer>[] nodes = new Node[n * n];
+                    public void makeCluster(int cell) { nodes[cell] = P.makeCluster(cell); }
+                    public void union(int p, int q) { P.union(nodes[p], nodes[q]); }
+                    public int find(int cell) { return P.find(nodes[cell]).elem; }
+                    public List<Integer> clusterSizes() { return P.clusterSizes(); }
+                };
+            case "ForestPartition":
+                return new Ops() {
+                    final ForestPartition P = new ForestPartition(n * n);
+                    public void makeCluster(int cell) { P.makeCluster(cell); }
+                    public void union(int p, int q) { P.union(p, q); }
+                    public int find(int cell) { return P.find(cell); }
+                    public List<Integer> clusterSizes() { return P.clusterSizes(); }
+                };
+            case "SparsePartition":
+                return new Ops() {
+                    final SparsePartition P = new SparsePartition();
+                    final int[] index = new int[n * n];
+                    public void makeCluster(int cell) { index[cell] = P.makeCluster(SparsePartition.key(cell / n, cell % n)); }
+                    public void union(int p, int q) { P.union(index[p], index[q]); }
+                    public int find(int cell) { return P.find(index[cell]); }
+                    public List<Integer> clusterSizes() { return P.clusterSizes(); }
+                };
+            case "ConcurrentPartition":
+                return new Ops() {
+                    final ConcurrentPartition P = new ConcurrentPartition(n * n);
+                    public void makeCluster(int cell) { P.makeCluster(cell); }
+                    public void union(int p, int q) { P.union(p, q); }
+                    public int find(int cell) { return P.find(cell); }
+                    public List<Integer> clusterSizes() { return P.clusterSizes(); }
+                };
+            default:
+                throw new IllegalArgumentException("unknown engine " + engine);
+        }
+    }
+
+    private static void benchPartition(String name, String engine, int n, double density) {
+        BitGrid map = new SurveyGenerator("random", n, n, density, 42, 64).grid();
+        int[] land = new int[(int) map.landCount()];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = map.nextLand(i, 0); j < n; j = map.nextLand(i, j + 1)) {
+                land[count++] = i * n + j;
+            }
+        }
+        int unions = 0;
+        for (int cell : land) {
+            unions += (cell % n + 1 < n && map.isLand(cell / n, cell % n + 1) ? 1 : 0)
+                    + (cell / n + 1 < n && map.isLand(cell / n + 1, cell % n) ? 1 : 0);
+        }
+        long[] opsPerStage = {land.length, unions, land.length, 1};
+
+        long[][] nanos = new long[STAGES.length][iterations];
+        long[][] allocated = new long[STAGES.length][iterations];
+        long[] t = new long[STAGES.length + 1];
+        long[] bytes = new long[STAGES.length + 1];
+        for (int it = -warmup; it < iterations; it++) {
+            Ops P = newOps(engine, n);
+            bytes[0] = allocatedBytes();
+            t[0] = System.nanoTime();
+            for (int cell : land) {
+                P.makeCluster(cell);
+            }
+            t[1] = System.nanoTime();
+            bytes[1] = allocatedBytes();
+            for (int cell : land) {
+                if (cell % n + 1 < n && map.isLand(cell / n, cell % n + 1)) {
+                    P.union(cell, cell + 1);
+                }
+                if (cell / n + 1 < n && map.isLand(cell / n + 1, cell % n)) {
+                    P.union(cell, cell + n);
+                }
+            }
+            t[2] = System.nanoTime();
+            bytes[2] = allocatedBytes();
+            long h = 0;
+            for (int cell : land) {
+                h += P.find(cell);
+            }
+            t[3] = System.nanoTime();
+            bytes[3] = allocatedBytes();
+            List<Integer> sizes = P.clusterSizes();
+            t[4] = System.nanoTime();
+            bytes[4] = allocatedBytes();
+            sink += h + sizes.size();
+            if (it >= 0) {
+                for (int s = 0; s < STAGES.length; s++) {
+                    nanos[s][it] = t[s + 1] - t[s];
+                    allocated[s][it] = bytes[s + 1] - bytes[s];
+                }
+            }
+        }
+        for (int s = 0; s < STAGES.length; s++) {
+            report(name, STAGES[s], opsPerStage[s], nanos[s], allocated[s]);
+        }
+    }
+
+    // ---- Survey benchmarks ----
+
+    private static void benchSurvey(String name, String program, byte[] input) throws Exception {
+        long[] nanos = new long[iterations];
+        long[] allocated = new long[iterations];
+        OutputStream discard = new OutputStream() {
+            public void write(int b) { sink += b; }
+            public void write(byte[] b, int off, int len) { sink += len; }
+        };
+        for (int it = -warmup; it < iterations; it++) {
+            long bytes = allocatedBytes();
+            long t0 = System.nanoTime();
+            try (SurveyInput in = new SurveyInput(new ByteArrayInputStream(input));
+                 SurveyOutput out = new SurveyOutput(discard)) {
+                if (program.equals("IslandSurvey")) {
+                    IslandSurvey.survey(in, out, IslandSurvey.Options.parse(new String[0]), new SurveyWorkspace());
+                } else {
+                    IslandLakeSurvey.survey(in, out, IslandLakeSurvey.Options.parse(new String[0]), new SurveyWorkspace());
+                }
+            }
+            long t1 = System.nanoTime();
+            if (it >= 0) {
+                nanos[it] = t1 - t0;
+                allocated[it] = allocatedBytes() - bytes;
+            }
+        }
+        report(name, "survey", 1, nanos, allocated);
+    }
+
+    // ---- Inputs ----
+
+    // A generated survey input (see SurveyGenerator); each phase turns about rows*cols/1000 water
+    // cells into land.
+    static byte[] textInput(int rows, int cols, double density, int phases, long seed) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new SurveyGenerator("random", rows, cols, density, seed, 64).write(bytes, "text", phases, Math.max(1, rows * cols / 1000));
+        return bytes.toByteArray();
+    }
+
+    // ---- Measurement ----
+
+    // Bytes allocated so far by this thread, or 0 where the JVM cannot tell.
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    // What one allocatedBytes call allocates itself, subtracted from every measurement.
+    private static long allocationOverhead = -1;
+
+    private static long allocationOverhead() {
+        if (allocationOverhead < 0) {
+            long least = Long.MAX_VALUE;
+            for (int k = 0; k < 100; k++) {
+                least = Math.min(least, -allocatedBytes() + allocatedBytes());
+            }
+            allocationOverhead = least;
+        }
+        return allocationOverhead;
+    }
+
+    private static void report(String name, String stage, long ops, long[] nanos, long[] allocated) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long t : sorted) {
+            total += t;
+        }
+        double opsPerSecond = total == 0 ? 0 : ops * (double) sorted.length * 1e9 / total;
+        long bytes = 0;
+        for (long b : allocated) {
+            bytes += b;
+        }
+        long bytesPerIteration = Math.max(0, bytes / allocated.length - allocationOverhead());
+        System.out.printf("%-44s %-13s %14.0f %10.3f %10.3f %10.3f %12.1f%n", name, stage, opsPerSecond,
+                sorted[0] / 1e6, median(sorted) / 1e6, sorted[sorted.length - 1] / 1e6,
+                bytesPerIteration / (double) ops);
+        System.out.flush();
+    }
+
+    // Median of sorted nanosecond samples (the mean of the middle two for an even count).
+    private static double median(long[] sorted) {
+        int mid = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[mid] : (sorted[mid - 1] + sorted[mid]) / 2.0;
+    }
+}
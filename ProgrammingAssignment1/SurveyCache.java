@@ -0,0 +1,322 @@
+// File name: SurveyCache.java
+// Result cache in front of the survey programs (--cache DIR). An input is keyed by a 128-bit hash
+// chain over the map and its phase blocks: key 0 covers the map, key p the map and phases 1..p.
+// A finished survey stores its whole report under the key of its last phase, together with a
+// checkpoint of its final state. Then:
+//   - a repeated input (same map and phases) is answered from the stored report, without
+//     building any partition; recent reports are also kept in memory (LRU, bounded in bytes)
+//   - an input that extends a cached one with more phases resumes from the checkpoint of the
+//     longest cached prefix and only runs the phases after it
+//   - anything else runs in full and is stored.
+// Entries live in DIR as <key>.out (the report) and <key>.ck (the checkpoint); both are written
+// to a temporary file first and moved into place, so concurrent surveys (see SurveyBatch) and
+// crashes never leave a half-written entry. DIR is bounded in bytes (1 GiB unless given): every
+// store deletes the least recently used entries (by the report's modification time, which a hit
+// renews) until the rest fit, keeping the entry just stored. A checkpoint that no longer loads is
+// deleted too, and the input resumed from a shorter prefix or run in full.
+//
+// The input is read once: the keys are hashed as the map rows and phase blocks come in, and the
+// survey is then fed from the grid and blocks already read (no second encoded copy). Its report
+// goes straight to the output as it is written, with a copy teed into the entry's temp file.
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+public class SurveyCache {
+
+    // Runs the survey on input (a map, or just phase blocks when resuming from resume) and saves a
+    // checkpoint of the final state to checkpointPath.
+    interface Run {
+        void run(SurveyInput input, SurveyOutput output, SurveyCheckpoint.State resume, String checkpointPath) throws Exception;
+    }
+
+    private static final long MEMORY_BYTES = 64L << 20;   // reports kept in memory
+    private static final long DISK_BYTES = 1L << 30;      // default bound on the entries in DIR
+    private static final int CHUNK = 1 << 16;             // bytes copied at a time from a stored report
+
+    private final Path dir;
+    private final long diskBytes;
+    private final LinkedHashMap<String, byte[]> recent = new LinkedHashMap<>(16, 0.75f, true);
+    private long recentBytes;
+
+    public SurveyCache(Path dir) {
+        this(dir, DISK_BYTES);
+    }
+
+    // A cache whose entries in dir (reports and checkpoints) take at most about diskBytes.
+    public SurveyCache(Path dir, long diskBytes) {
+        this.dir = dir;
+        this.diskBytes = diskBytes;
+    }
+
+    // Surveys input (a full map and its phases) through the cache, writing the report to output.
+    // tag names the program and any option that changes the report, so different reports of the
+    // same input never share a key.
+    public void survey(String tag, SurveyInput input, SurveyOutput output, Run run) throws Exception {
+        // keys[p] covers the map and phases 1..p, hashed while they are read
+        Key key = new Key(tag);
+        int rows = input.nextInt();
+        int cols = input.nextInt();
+        key.mix(((long) rows << 32) | cols);
+        BitGrid map = new BitGrid(rows, cols);
+        for (int i = 0; i < rows; i++) {
+            input.readRow(map, i);
+            for (int w = 0; w < map.wordsPerRow(); w++) {
+                key.mix(map.word(i, w));
+            }
+        }
+        int numPhases = input.nextInt();
+        String[] keys = new String[numPhases + 1];
+        keys[0] = key.hex();
+        int[][] phases = new int[numPhases][];
+        for (int phase = 0; phase < numPhases; phase++) {
+            int[] coords = new int[2 * input.nextInt()];
+            for (int k = 0; k < coords.length; k++) {
+                coords[k] = input.nextInt();
+            }
+            phases[phase] = coords;
+            key.mix(coords.length);
+            for (int k = 0; k + 1 < coords.length; k += 2) {
+                key.mix(((long) coords[k] << 32) | (coords[k + 1] & 0xFFFFFFFFL));
+            }
+            keys[phase + 1] = key.hex();
+        }
+
+        // A repeated input: the stored report is the answer
+        if (copyReport(keys[numPhases], output)) {
+            return;
+        }
+
+        // Longest cached prefix whose checkpoint still loads; it is loaded before any output, so
+        // a damaged one can still be dropped in favour of a full run
+        int from = 0;
+        SurveyCheckpoint.State resume = null;
+        for (int p = numPhases - 1; p >= 0 && resume == null; p--) {
+            Path ck = dir.resolve(keys[p] + ".ck");
+            if (Files.exists(ck) && Files.exists(dir.resolve(keys[p] + ".out"))) {
+                try {
+                    resume = SurveyCheckpoint.load(ck);
+                    from = p;
+                } catch (IOException | RuntimeException e) {
+                    Files.deleteIfExists(ck);
+                }
+            }
+        }
+
+        Files.createDirectories(dir);
+        Path checkpoint = Files.createTempFile(dir, keys[numPhases], ".part");
+        Path report = Files.createTempFile(dir, keys[numPhases], ".out.tmp");
+        try {
+            try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(report), CHUNK)) {
+                SurveyOutput tee = new SurveyOutput(new Tee(output, file));
+                // The stored report covers phases up to from; the rest follow a blank line. It may
+                // have been evicted since the search, in which case nothing was written yet
+                if (resume != null && !copyReport(keys[from], tee)) {
+                    resume = null;
+                }
+                if (resume == null) {
+                    run.run(new SurveyInput(map, phases, 0), tee, null, checkpoint.toString());
+                } else {
+                    map = null;   // the checkpoint has its own
+                    tee.println();
+                    run.run(new SurveyInput(null, phases, from), tee, resume, checkpoint.toString());
+                }
+                tee.flush();
+            }
+            store(keys[numPhases], report, checkpoint);
+        } finally {
+            Files.deleteIfExists(checkpoint);
+            Files.deleteIfExists(report);
+        }
+    }
+
+    // Writes the stored report for key (memory first, then disk) to out; false if there is none.
+    private boolean copyReport(String key, SurveyOutput out) throws IOException {
+        byte[] bytes;
+        synchronized (recent) {
+            bytes = recent.get(key);
+        }
+        if (bytes != null) {
+            touch(dir.resolve(key + ".out"));
+            out.write(bytes);
+            return true;
+        }
+        Path file = dir.resolve(key + ".out");
+        try (InputStream in = Files.newInputStream(file)) {
+            touch(file);
+            if (Files.size(file) <= MEMORY_BYTES / 4) {
+                bytes = in.readAllBytes();
+                remember(key, bytes);
+                out.write(bytes);
+                return true;
+            }
+            byte[] chunk = new byte[CHUNK];
+            for (int n = in.read(chunk); n >= 0; n = in.read(chunk)) {
+                out.write(chunk, 0, n);
+            }
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    // Moves the checkpoint into place before the report, so a report on disk always has one.
+    private void store(String key, Path report, Path checkpoint) throws IOException {
+        Files.move(checkpoint, dir.resolve(key + ".ck"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Path file = dir.resolve(key + ".out");
+        Files.move(report, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (Files.size(file) <= MEMORY_BYTES / 4) {
+            remember(key, Files.readAllBytes(file));
+        }
+        evict(key);
+    }
+
+    // Marks an entry as just used; it may already have been evicted (by this or another process).
+    private static void touch(Path report) {
+        try {
+            Files.setLastModifiedTime(report, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // nothing to renew
+        }
+    }
+
+    // Deletes the least recently used entries other than keep until DIR fits in diskBytes. The
+    // report goes before its checkpoint, so a report on disk still always has one; files that
+    // vanish meanwhile (another survey evicting) are skipped.
+    private synchronized void evict(String keep) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.out")) {
+            for (Path report : files) {
+                String key = report.getFileName().toString();
+                key = key.substring(0, key.length() - ".out".length());
+                try {
+                    long bytes = Files.size(report);
+                    Path ck = dir.resolve(key + ".ck");
+                    if (Files.exists(ck)) {
+                        bytes += Files.size(ck);
+                    }
+                    entries.add(new Entry(key, Files.getLastModifiedTime(report).toMillis(), bytes));
+                    total += bytes;
+                } catch (NoSuchFileException e) {
+                    // evicted meanwhile
+                }
+            }
+        }
+        if (total <= diskBytes) {
+            return;
+        }
+        entries.sort(Comparator.comparingLong(e -> e.used));
+        for (Entry e : entries) {
+            if (total <= diskBytes) {
+                break;
+            }
+            if (e.key.equals(keep)) {
+                continue;
+            }
+            Files.deleteIfExists(dir.resolve(e.key + ".out"));
+            Files.deleteIfExists(dir.resolve(e.key + ".ck"));
+            synchronized (recent) {
+                byte[] old = recent.remove(e.key);
+                if (old != null) {
+                    recentBytes -= old.length;
+                }
+            }
+            total -= e.bytes;
+        }
+    }
+
+    // An entry in DIR: its key, when its report was last used and the bytes of both its files.
+    private static class Entry {
+        final String key;
+        final long used, bytes;
+
+        Entry(String key, long used, long bytes) {
+            this.key = key;
+            this.used = used;
+            this.bytes = bytes;
+        }
+    }
+
+    private void remember(String key, byte[] report) {
+        if (report.length > MEMORY_BYTES / 4) {
+            return;   // one huge report would push out everything else
+        }
+        synchronized (recent) {
+            byte[] old = recent.put(key, report);
+            recentBytes += report.length - (old == null ? 0 : old.length);
+            Iterator<byte[]> eldest = recent.values().iterator();
+            while (recentBytes > MEMORY_BYTES) {
+                recentBytes -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    // Hash chain behind the keys. Two 64-bit lanes with different multipliers are mixed over the
+    // tag, the size, every grid word and every phase coordinate.
+    private static class Key {
+        private long a = 0x243F6A8885A308D3L, b = 0x13198A2E03707344L;
+
+        Key(String tag) {
+            for (int k = 0; k < tag.length(); k++) {
+                mix(tag.charAt(k));
+            }
+        }
+
+        void mix(long v) {
+            a = mixA(a, v);
+            b = mixB(b, v);
+        }
+
+        String hex() {
+            return String.format("%016x%016x", finish(a), finish(b));
+        }
+    }
+
+    private static long mixA(long h, long v) {
+        return Long.rotateLeft(h ^ (v * 0x9E3779B97F4A7C15L), 27) * 0xBF58476D1CE4E5B9L;
+    }
+
+    private static long mixB(long h, long v) {
+        return Long.rotateLeft(h ^ (v * 0xC2B2AE3D27D4EB4FL), 31) * 0x94D049BB133111EBL;
+    }
+
+    private static long finish(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    // Writes everything to the survey output and to the entry's temp file.
+    private static class Tee extends OutputStream {
+        private final SurveyOutput output;
+        private final OutputStream file;
+
+        Tee(SurveyOutput output, OutputStream file) {
+            this.output = output;
+            this.file = file;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) throws IOException {
+            output.write(bytes, off, len);
+            file.write(bytes, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            output.flush();
+            file.flush();
+        }
+    }
+}
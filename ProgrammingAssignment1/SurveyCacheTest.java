@@ -0,0 +1,183 @@
+// File name: SurveyCacheTest.java
+// Checks that a prefix resume through the cache survives the conditions of a batch run (the
+// project has no test framework, so this is a plain program; it exits with status 1 on failure):
+//   - checkpoints saved from a reused SurveyWorkspace, whose partition may be longer than the
+//     map, still load: a 20x20 map and then a 10x20 map are cached by one worker, and a later
+//     batch extends the 10x20 map with more phases
+//   - a damaged checkpoint is deleted and the input surveyed in full instead of failing
+//   - --delta reports made with and without --parallel (which picks other leaders) never answer
+//     for each other
+//   - a cache bounded to about two entries evicts the least recently used one.
+// Every cached report must match a run without the cache (with the same options).
+//
+// Usage: java SurveyCacheTest
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class SurveyCacheTest {
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        Path root = Files.createTempDirectory("surveycache");
+        try {
+            Path cache = root.resolve("cache");
+            Path first = Files.createDirectories(root.resolve("first"));
+            Path second = Files.createDirectories(root.resolve("second"));
+            write(first.resolve("a.txt"), 20, 20, 2, 1);
+            write(first.resolve("b.txt"), 10, 20, 2, 2);
+            write(second.resolve("b.txt"), 10, 20, 4, 2);   // b.txt of first plus two phases
+
+            for (boolean lakes : new boolean[] {false, true}) {
+                String program = lakes ? "IslandLakeSurvey" : "IslandSurvey";
+                deleteTree(cache);
+                batch(first, cache, lakes, program + " first batch");
+                batch(second, cache, lakes, program + " prefix resume after a larger map");
+
+                // Damage every checkpoint; the longer input must still be surveyed (in full)
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(cache, "*.ck")) {
+                    for (Path ck : entries) {
+                        Files.write(ck, new byte[] {1, 2, 3});
+                    }
+                }
+                write(second.resolve("b.txt"), 10, 20, 5, 2);
+                batch(second, cache, lakes, program + " damaged checkpoint");
+            }
+
+            // The same coast map with --delta, then with --delta --parallel
+            Path coast = Files.createDirectories(root.resolve("coast"));
+            SurveyGenerator generator = new SurveyGenerator("coast", 40, 40, 0.5, 3, 0);
+            try (OutputStream out = Files.newOutputStream(coast.resolve("c.txt"))) {
+                generator.write(out, "text", 4, 6);
+            }
+            deleteTree(cache);
+            batch(coast, cache, false, new String[] {"--delta"}, "IslandSurvey --delta");
+            batch(coast, cache, false, new String[] {"--delta", "--parallel"}, "IslandSurvey --delta --parallel after --delta");
+
+            eviction(root);
+        } finally {
+            deleteTree(root);
+        }
+        System.out.println(failures == 0 ? "all passed" : failures + " failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void batch(Path dir, Path cache, boolean lakes, String name) throws Exception {
+        batch(dir, cache, lakes, new String[0], name);
+    }
+
+    // Surveys every map in dir through the cache on one worker and compares with uncached runs.
+    private static void batch(Path dir, Path cache, boolean lakes, String[] options, String name) throws Exception {
+        List<Path> maps = SurveyBatch.listMaps(dir);
+        String[] args = Arrays.copyOf(options, options.length + 2);
+        args[options.length] = "--cache";
+        args[options.length + 1] = cache.toString();
+        int failed = SurveyBatch.run(maps, null, lakes, args, 1);
+        boolean same = failed == 0;
+        for (Path map : maps) {
+            Path out = SurveyBatch.outputPath(map, null);   // removed if the survey failed
+            same &= Files.exists(out) && Arrays.equals(Files.readAllBytes(out), uncached(map, lakes, options));
+        }
+        check(same, name);
+    }
+
+    // Three maps through a cache with room for about two of their entries: after a, b, a hit on a
+    // and then c, b must be the one evicted.
+    private static void eviction(Path root) throws Exception {
+        Path maps = Files.createDirectories(root.resolve("evict"));
+        Path[] map = new Path[3];
+        for (int k = 0; k < 3; k++) {
+            map[k] = maps.resolve("m" + k + ".txt");
+            write(map[k], 30, 30, 3, 10 + k);
+        }
+        // The largest entry, measured in a cache of its own
+        long entry = 0;
+        for (int k = 0; k < 3; k++) {
+            Path dir = root.resolve("measure" + k);
+            cached(new SurveyCache(dir), map[k]);
+            long bytes = 0;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path f : files) {
+                    bytes += Files.size(f);
+                }
+            }
+            entry = Math.max(entry, bytes);
+        }
+
+        SurveyCache cache = new SurveyCache(root.resolve("bounded"), entry * 5 / 2);
+        boolean same = cached(cache, map[0]) && cached(cache, map[1]);
+        Thread.sleep(20);   // keep the recorded uses apart
+        same &= !cached(cache, map[0]);
+        Thread.sleep(20);
+        same &= cached(cache, map[2]);
+        check(same, "bounded cache stores every input once");
+        check(!cached(new SurveyCache(root.resolve("bounded"), entry * 5 / 2), map[0]), "bounded cache keeps the recently used entry");
+        check(cached(new SurveyCache(root.resolve("bounded"), entry * 5 / 2), map[1]), "bounded cache evicts the least recently used entry");
+    }
+
+    // Surveys map through cache, checking the report against an uncached run; true if the survey
+    // had to run (a miss). A fresh SurveyCache object has nothing in memory, so it reads DIR.
+    private static boolean cached(SurveyCache cache, Path map) throws Exception {
+        boolean[] ran = new boolean[1];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (SurveyInput input = SurveyInput.open(map.toString()); SurveyOutput output = new SurveyOutput(bytes)) {
+            IslandSurvey.Options options = IslandSurvey.Options.parse(new String[0]);
+            cache.survey("IslandSurvey", input, output, (in, out, resume, checkpoint) -> {
+                ran[0] = true;
+                IslandSurvey.survey(in, out, options.forCache(resume, checkpoint), new SurveyWorkspace());
+            });
+        }
+        if (!Arrays.equals(bytes.toByteArray(), uncached(map, false, new String[0]))) {
+            check(false, "bounded cache report of " + map.getFileName());
+        }
+        return ran[0];
+    }
+
+    private static byte[] uncached(Path map, boolean lakes, String[] options) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (SurveyInput input = SurveyInput.open(map.toString()); SurveyOutput output = new SurveyOutput(bytes)) {
+            if (lakes) {
+                IslandLakeSurvey.survey(input, output, IslandLakeSurvey.Options.parse(options), new SurveyWorkspace());
+            } else {
+                IslandSurvey.survey(input, output, IslandSurvey.Options.parse(options), new SurveyWorkspace());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void check(boolean passed, String name) {
+        if (!passed) {
+            failures++;
+        }
+        System.out.println((passed ? "ok     " : "FAILED ") + name);
+    }
+
+    // A rows x cols map with phases blocks of two cells each; the same seed gives the same map
+    // and the same first blocks whatever the number of phases.
+    private static void write(Path file, int rows, int cols, int phases, long seed) throws IOException {
+        SurveyGenerator generator = new SurveyGenerator("random", rows, cols, 0.4, seed, 0);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            generator.write(out, "text", phases, 2);
+        }
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path p : entries) {
+                if (Files.isDirectory(p)) {
+                    deleteTree(p);
+                } else {
+                    Files.delete(p);
+                }
+            }
+        }
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,104 @@
+// File name: SurveyCheckpoint.java
+// Binary checkpoint of a survey's state after its last phase: the map grid, the BP union-find
+// forest and BP's area histogram. A later run resumes from it (--resume) and only reads and
+// applies the new phase blocks instead of rebuilding BP from the map. Both survey programs keep
+// the same state in their default mode, so either can resume the other's checkpoint.
+//
+// Format (big-endian): int magic 0x49534331 ("ISC1"), long number of phases applied since the
+// map (the sequence number of the last phase, see PhaseLog), the grid (BitGrid.writeTo), then
+// the partition (ForestPartition.writeTo).
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+
+public class SurveyCheckpoint {
+
+    static final int MAGIC = 0x49534331;
+
+    private static final int CHUNK = 1 << 16;   // bytes converted per bulk read/write
+
+    // The state read back from a checkpoint.
+    static class State {
+        final BitGrid map;
+        final ForestPartition BP;
+        final long sequence;
+
+        State(BitGrid map, ForestPartition BP, long sequence) {
+            this.map = map;
+            this.BP = BP;
+            this.sequence = sequence;
+        }
+    }
+
+    // Writes the checkpoint next to file and then moves it into place, so a crash while saving
+    // leaves the previous checkpoint intact (and file may be the one the run resumed from).
+    public static void save(Path file, BitGrid map, ForestPartition BP, long sequence) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, CHUNK))) {
+            out.writeInt(MAGIC);
+            out.writeLong(sequence);
+            map.writeTo(out);
+            // only the map's cells: a reused workspace partition may be longer (see SurveyWorkspace)
+            BP.writeTo(out, map.rows() * map.cols());
+            out.flush();
+            // on disk before it replaces the old checkpoint (and before a phase log is emptied)
+            stream.getFD().sync();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static State load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), CHUNK))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a survey checkpoint");
+            }
+            long sequence = in.readLong();
+            BitGrid map = BitGrid.readFrom(in);
+            ForestPartition BP = ForestPartition.readFrom(in);
+            if (BP.capacity() != map.rows() * map.cols()) {
+                throw new IOException(file + " is damaged: partition does not match the map");
+            }
+            return new State(map, BP, sequence);
+        }
+    }
+
+    // Bulk array writers/readers for the writeTo/readFrom methods, a chunk of bytes at a time
+    // instead of one stream call per element.
+    static void writeInts(DataOutputStream out, int[] a, int length) throws IOException {
+        byte[] bytes = new byte[CHUNK];
+        for (int from = 0; from < length; from += CHUNK / 4) {
+            int n = Math.min(CHUNK / 4, length - from);
+            ByteBuffer.wrap(bytes).asIntBuffer().put(a, from, n);
+            out.write(bytes, 0, 4 * n);
+        }
+    }
+
+    static void readInts(DataInputStream in, int[] a) throws IOException {
+        byte[] bytes = new byte[CHUNK];
+        for (int from = 0; from < a.length; from += CHUNK / 4) {
+            int n = Math.min(CHUNK / 4, a.length - from);
+            in.readFully(bytes, 0, 4 * n);
+            ByteBuffer.wrap(bytes).asIntBuffer().get(a, from, n);
+        }
+    }
+
+    static void writeLongs(DataOutputStream out, long[] a) throws IOException {
+        byte[] bytes = new byte[CHUNK];
+        for (int from = 0; from < a.length; from += CHUNK / 8) {
+            int n = Math.min(CHUNK / 8, a.length - from);
+            ByteBuffer.wrap(bytes).asLongBuffer().put(a, from, n);
+            out.write(bytes, 0, 8 * n);
+        }
+    }
+
+    static void readLongs(DataInputStream in, long[] a) throws IOException {
+        byte[] bytes = new byte[CHUNK];
+        for (int from = 0; from < a.length; from += CHUNK / 8) {
+            int n = Math.min(CHUNK / 8, a.length - from);
+            in.readFully(bytes, 0, 8 * n);
+            ByteBuffer.wrap(bytes).asLongBuffer().get(a, from, n);
+        }
+    }
+}
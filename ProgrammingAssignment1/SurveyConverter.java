@@ -0,0 +1,89 @@
+// File name: SurveyConverter.java
+// Converts a text survey input (mapN.txt format) into the binary survey format, which
+// SurveyInput reads (memory-mapped) wherever a text map file is accepted.
+//
+// Binary format (all fixed-size integers big-endian):
+//   int    magic  0x49534D31 ("ISM1")
+//   int    rows, int cols, int number of phases F
+//   grid   rows * ceil(cols/64) longs; row i, long w, bit b is cell (i, 64*w + b), 1 = land
+//   F phase blocks, each: varint L, then L pairs of varints (row, col)
+// A varint stores 7 bits per byte, low bits first; the high bit of a byte is set if more follow.
+// With --runs the magic is 0x49535231 ("ISR1") and each grid row is instead stored as a varint
+// run count followed by (gap from the previous run's end, run length) varint pairs, so mostly
+// water maps cost a byte or so per row.
+//
+// Usage: java SurveyConverter [--runs] input.txt output.bin   (input "-" reads stdin)
+
+import java.io.*;
+
+public class SurveyConverter {
+
+    public static void main(String[] args) {
+        boolean runs = args.length == 3 && args[0].equals("--runs");
+        if (args.length != (runs ? 3 : 2)) {
+            System.err.println("Usage: java SurveyConverter [--runs] input.txt output.bin");
+            return;
+        }
+        String inArg = args[args.length - 2];
+        String inPath = inArg.equals("-") ? null : inArg;
+        try (SurveyInput input = SurveyInput.open(inPath);
+             RandomAccessFile file = new RandomAccessFile(args[args.length - 1], "rw")) {
+            file.setLength(0);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.getFD()), 1 << 16));
+            int phaseCount = convert(input, out, runs);
+            out.flush();
+
+            // F comes after the grid in the text format; patch it into the header
+            file.seek(12);
+            file.writeInt(phaseCount);
+        } catch (Exception e) {
+            System.err.println("Error converting input: " + e.getMessage());
+        }
+    }
+
+    // Copies the map row by row (one row of memory) and then every phase; returns the phase count.
+    private static int convert(SurveyInput input, DataOutputStream out, boolean runs) throws IOException {
+        int rows = input.nextInt();
+        int cols = input.nextInt();
+        out.writeInt(runs ? SurveyInput.RUNS_MAGIC : SurveyInput.MAGIC);
+        out.writeInt(rows);
+        out.writeInt(cols);
+        out.writeInt(0);   // phase count, patched at the end
+
+        BitGrid row = new BitGrid(1, cols);
+        for (int i = 0; i < rows; i++) {
+            if (runs) {
+                int count = input.readRuns(cols);
+                writeVarint(out, count);
+                for (int k = 0, end = 0; k < count; k++) {
+                    writeVarint(out, input.runStart(k) - end);
+                    writeVarint(out, input.runEnd(k) - input.runStart(k));
+                    end = input.runEnd(k);
+                }
+                continue;
+            }
+            input.readRow(row, 0);
+            for (int w = 0; w < row.wordsPerRow(); w++) {
+                out.writeLong(row.word(0, w));
+            }
+        }
+
+        int phaseCount = input.nextInt();
+        for (int phase = 0; phase < phaseCount; phase++) {
+            int L = input.nextInt();
+            writeVarint(out, L);
+            for (int k = 0; k < 2 * L; k++) {
+                writeVarint(out, input.nextInt());
+            }
+        }
+        return phaseCount;
+    }
+
+    static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
@@ -0,0 +1,158 @@
+// File name: SurveyEngine.java
+// Resident survey state (map, island partition and the latest lake pass) with per-cell queries:
+// which island contains a square, how big it is, whether a water square is part of a lake and
+// which island owns that lake. Queries read the maintained union-find forests (a leader walk,
+// no rescans); lake queries need an up-to-date lake pass (see updateLakes), which rebuilds the
+// white partition from the whole map, so callers redo it when they commit a change (SurveyServer:
+// once per ADD) rather than inside a query.
+//
+// Not thread-safe by itself: the query methods never modify anything, so callers may run them
+// concurrently under a shared lock, while addLand and updateLakes need exclusive access
+// (SurveyServer uses a read/write lock).
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+public class SurveyEngine {
+
+    private final BitGrid map;
+    private final ForestPartition BP;   // islands; cell (i,j) is index i*cols+j
+    private final int rows, cols;
+
+    private IslandLakeSurvey.LakeScratch scratch;   // WP and lake tallies, allocated on first use
+    private long version;                           // bumped by every change of the map
+    private long lakeVersion = -1;                  // version the lake pass was made for
+
+    public SurveyEngine(BitGrid map, ForestPartition BP) {
+        this.map = map;
+        this.BP = BP;
+        this.rows = map.rows();
+        this.cols = map.cols();
+    }
+
+    // Reads a survey input (map and any phases) and labels it, like IslandSurvey.
+    public static SurveyEngine load(String path) throws IOException {
+        try (SurveyInput input = SurveyInput.open(path)) {
+            int rows = input.nextInt();
+            int cols = input.nextInt();
+            BitGrid map = new BitGrid(rows, cols);
+            for (int i = 0; i < rows; i++) {
+                input.readRow(map, i);
+            }
+            ForestPartition BP = new ForestPartition(rows * cols);
+            IslandSurvey.labelIslands(map, BP);
+
+            SurveyEngine engine = new SurveyEngine(map, BP);
+            int numPhases = input.nextInt();
+            for (int phase = 0; phase < numPhases; phase++) {
+                int L = input.nextInt();
+                for (int k = 0; k < L; k++) {
+                    engine.addLand(input.nextInt(), input.nextInt());
+                }
+            }
+            return engine;
+        }
+    }
+
+    public static SurveyEngine fromCheckpoint(String path) throws IOException {
+        SurveyCheckpoint.State state = SurveyCheckpoint.load(Paths.get(path));
+        return new SurveyEngine(state.map, state.BP);
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    public boolean isLand(int i, int j) {
+        return map.isLand(i, j);
+    }
+
+    // Turns water square (i,j) into land and joins it to the side-adjacent islands.
+    public void addLand(int i, int j) {
+        int p = i * cols + j;
+        BP.makeCluster(p);
+        map.setLand(i, j);
+        int[][] sideDirs = {{0,1},{1,0},{0,-1},{-1,0}};
+        for (int[] d : sideDirs) {
+            if (map.isLand(i + d[0], j + d[1])) {
+                BP.union(p, (i + d[0]) * cols + j + d[1]);
+            }
+        }
+        version++;
+    }
+
+    // Island containing land square (i,j), named by its leader cell; -1 for water.
+    public int islandOf(int i, int j) {
+        return map.isLand(i, j) ? BP.leaderOf(i * cols + j) : -1;
+    }
+
+    // Number of land squares of the island containing (i,j); 0 for water.
+    public int islandSize(int i, int j) {
+        return map.isLand(i, j) ? BP.sizeOf(BP.leaderOf(i * cols + j)) : 0;
+    }
+
+    public int islandCount() {
+        return BP.numberOfClusters();
+    }
+
+    public long totalArea() {
+        return BP.totalArea();
+    }
+
+    // True if the lake pass reflects the current map.
+    public boolean lakesCurrent() {
+        return lakeVersion == version;
+    }
+
+    // Rebuilds WP and finds the lakes (same rules as IslandLakeSurvey), if the map changed.
+    public void updateLakes() {
+        if (lakesCurrent()) {
+            return;
+        }
+        if (scratch == null) {
+            scratch = new IslandLakeSurvey.LakeScratch(rows * cols);
+        }
+        scratch.WP.clear();
+        IslandLakeSurvey.buildWhitePartitionFromScratch(map, rows, cols, scratch.WP);
+        IslandLakeSurvey.identifyLakes(map, rows, cols, BP, scratch);
+        lakeVersion = version;
+    }
+
+    // Lake totals of the latest lake pass.
+    public int lakeCount() {
+        return scratch == null ? 0 : scratch.lakeCount;
+    }
+
+    public int lakeArea() {
+        return scratch == null ? 0 : scratch.lakeArea;
+    }
+
+    // Island owning the lake that contains water square (i,j), named by its leader cell; -1 if
+    // (i,j) is land or water that is not part of a lake. Needs a current lake pass.
+    public int lakeOwner(int i, int j) {
+        int w = lakeComponent(i, j);
+        return w < 0 ? -1 : BP.leaderOf(scratch.island[w]);
+    }
+
+    // Area of the lake containing (i,j), or 0 if (i,j) is not part of a lake. Needs a current lake pass.
+    public int lakeSize(int i, int j) {
+        int w = lakeComponent(i, j);
+        return w < 0 ? 0 : scratch.area[w];
+    }
+
+    // WP leader of (i,j) if it is a lake, else -1.
+    private int lakeComponent(int i, int j) {
+        if (!lakesCurrent()) {
+            throw new IllegalStateException("lake pass is out of date; call updateLakes first");
+        }
+        if (!map.isWater(i, j)) {
+            return -1;
+        }
+        int w = scratch.WP.leaderOf(i * cols + j);
+        return scratch.stamp[w] == scratch.epoch && scratch.island[w] >= 0 ? w : -1;
+    }
+}
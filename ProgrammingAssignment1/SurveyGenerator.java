@@ -0,0 +1,319 @@
+// File name: SurveyGenerator.java
+// Deterministic, seedable generator of survey inputs (map plus phase blocks) for scaling tests.
+// Whether a cell is land is a pure function of (seed, row, column), so maps are written row by
+// row and never held in memory: 10^4 x 10^4 and larger cost one row of memory plus the phase
+// cells. The same arguments always give the same bytes.
+//
+// Shapes:
+//   random       every cell is land with probability --density (percolation-style)
+//   coast        fractal coastlines: multi-octave value noise cut at the --density quantile
+//   archipelago  many small islands: fine-grained noise cut high, about --density land
+//   rings        nested island-in-lake-in-island: concentric square rings in tiles of --tile cells,
+//                with a lake at the centre of each tile
+//   snake        one serpentine island of full rows joined at alternating ends (deep, long merges)
+// Phases: --phases F blocks of --per-phase L cells, each a distinct cell that is water in the map.
+// A map that runs out of water gets fewer blocks (the last one possibly short), and the header
+// says how many there are.
+// Formats: the text format (default), or the binary formats of SurveyConverter (--binary, --runs).
+//
+// Usage: java SurveyGenerator [--shape NAME] [--rows R] [--cols C] [--density D] [--seed S]
+//                             [--tile T] [--phases F] [--per-phase L] [--binary | --runs] [output]
+
+import java.io.*;
+import java.util.*;
+
+public class SurveyGenerator {
+
+    private static final int NOISE_OCTAVES = 5;
+
+    private final String shape;
+    private final int rows, cols;
+    private final double density;
+    private final long seed;
+    private final int tile;
+    private double threshold;   // noise level above which a cell is land (noise shapes)
+
+    public SurveyGenerator(String shape, int rows, int cols, double density, long seed, int tile) {
+        if (!Arrays.asList("random", "coast", "archipelago", "rings", "snake").contains(shape)) {
+            throw new IllegalArgumentException("unknown shape " + shape);
+        }
+        if (rows <= 0 || cols <= 0) {
+            throw new IllegalArgumentException("the map needs at least one row and one column");
+        }
+        this.shape = shape;
+        this.rows = rows;
+        this.cols = cols;
+        this.density = density;
+        this.seed = seed;
+        this.tile = Math.max(4, tile);
+        if (shape.equals("coast") || shape.equals("archipelago")) {
+            threshold = noiseQuantile(1 - density);
+        }
+    }
+
+    public static void main(String[] args) {
+        String shape = "random";
+        int rows = 1000, cols = 1000;
+        double density = 0.5;
+        long seed = 1;
+        int tile = 64;
+        int phases = 0, perPhase = 1;
+        String format = "text";
+        String outPath = null;
+        for (int a = 0; a < args.length; a++) {
+            if (args[a].equals("--shape") && a + 1 < args.length) shape = args[++a];
+            else if (args[a].equals("--rows") && a + 1 < args.length) rows = Integer.parseInt(args[++a]);
+            else if (args[a].equals("--cols") && a + 1 < args.length) cols = Integer.parseInt(args[++a]);
+            else if (args[a].equals("--density") && a + 1 < args.length) density = Double.parseDouble(args[++a]);
+            else if (args[a].equals("--seed") && a + 1 < args.length) seed = Long.parseLong(args[++a]);
+            else if (args[a].equals("--tile") && a + 1 < args.length) tile = Integer.parseInt(args[++a]);
+            else if (args[a].equals("--phases") && a + 1 < args.length) phases = Integer.parseInt(args[++a]);
+            else if (args[a].equals("--per-phase") && a + 1 < args.length) perPhase = Integer.parseInt(args[++a]);
+            else if (args[a].equals("--binary")) format = "binary";
+            else if (args[a].equals("--runs")) format = "runs";
+            else outPath = args[a];
+        }
+
+        try (OutputStream out = outPath == null ? System.out : new FileOutputStream(outPath)) {
+            SurveyGenerator generator = new SurveyGenerator(shape, rows, cols, density, seed, tile);
+            generator.write(out, format, phases, perPhase);
+        } catch (Exception e) {
+            System.err.println("Error generating input: " + e.getMessage());
+        }
+    }
+
+    // Writes the map and phases phase blocks of perPhase cells in the given format
+    // ("text", "binary" or "runs"); fewer if the map runs out of water (see phases).
+    public void write(OutputStream stream, String format, int phases, int perPhase) throws IOException {
+        int[][] blocks = phases(phases, perPhase);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+        BitGrid row = new BitGrid(1, cols);
+
+        if (format.equals("text")) {
+            byte[] line = new byte[cols + 1];
+            line[cols] = '\n';
+            out.writeBytes(rows + " " + cols + "\n");
+            for (int i = 0; i < rows; i++) {
+                fillRow(i, row);
+                for (int j = 0; j < cols; j++) {
+                    line[j] = (byte) (row.isLand(0, j) ? '1' : '0');
+                }
+                out.write(line);
+            }
+            out.writeBytes(blocks.length + "\n");
+            for (int[] coords : blocks) {
+                StringBuilder text = new StringBuilder().append(coords.length / 2);
+                for (int v : coords) {
+                    text.append(' ').append(v);
+                }
+                out.writeBytes(text.append('\n').toString());
+            }
+        } else {
+            boolean runs = format.equals("runs");
+            out.writeInt(runs ? SurveyInput.RUNS_MAGIC : SurveyInput.MAGIC);
+            out.writeInt(rows);
+            out.writeInt(cols);
+            out.writeInt(blocks.length);
+            for (int i = 0; i < rows; i++) {
+                fillRow(i, row);
+                if (runs) {
+                    writeRuns(out, row);
+                } else {
+                    for (int w = 0; w < row.wordsPerRow(); w++) {
+                        out.writeLong(row.word(0, w));
+                    }
+                }
+            }
+            for (int[] coords : blocks) {
+                SurveyConverter.writeVarint(out, coords.length / 2);
+                for (int v : coords) {
+                    SurveyConverter.writeVarint(out, v);
+                }
+            }
+        }
+        out.flush();
+    }
+
+    // The whole map in memory, for callers that generate small maps directly (see SurveyBenchmark).
+    public BitGrid grid() {
+        BitGrid map = new BitGrid(rows, cols);
+        BitGrid row = new BitGrid(1, cols);
+        for (int i = 0; i < rows; i++) {
+            fillRow(i, row);
+            for (int w = 0; w < row.wordsPerRow(); w++) {
+                map.setWord(i, w, row.word(0, w));
+            }
+        }
+        return map;
+    }
+
+    // Whether cell (i,j) of the map is land.
+    public boolean isLand(int i, int j) {
+        switch (shape) {
+            case "random":
+                return unit(hash(seed, i, j)) < density;
+            case "coast":
+            case "archipelago":
+                return level(i, j) > threshold;
+            case "rings": {
+                // Chebyshev distance from the tile centre, in rings of width tile/8: odd rings land.
+                // The centre is a lake of the innermost ring; the water rings further out touch two
+                // islands, so they are not lakes
+                int half = tile / 2;
+                int d = Math.max(Math.abs(i % tile - half), Math.abs(j % tile - half));
+                return d < half && (d / Math.max(1, tile / 8)) % 2 == 1;
+            }
+            default:   // snake
+                return i % 2 == 0 || (i % 4 == 1 && j == cols - 1) || (i % 4 == 3 && j == 0);
+        }
+    }
+
+    // Row i into row 0 of the one-row grid.
+    private void fillRow(int i, BitGrid row) {
+        for (int w = 0; w < row.wordsPerRow(); w++) {
+            row.setWord(0, w, 0L);
+        }
+        for (int j = 0; j < cols; j++) {
+            if (isLand(i, j)) {
+                row.setLand(0, j);
+            }
+        }
+    }
+
+    // Run-stored row (see SurveyConverter --runs): run count, then (gap, length) pairs.
+    private void writeRuns(DataOutputStream out, BitGrid row) throws IOException {
+        int count = 0;
+        for (int j = row.nextLand(0, 0); j < cols; j = row.nextLand(0, row.nextWater(0, j))) {
+            count++;
+        }
+        SurveyConverter.writeVarint(out, count);
+        int end = 0;
+        for (int j = row.nextLand(0, 0); j < cols; j = row.nextLand(0, end)) {
+            int runEnd = row.nextWater(0, j);
+            SurveyConverter.writeVarint(out, j - end);
+            SurveyConverter.writeVarint(out, runEnd - j);
+            end = runEnd;
+        }
+    }
+
+    // phases blocks of perPhase distinct water cells, as (row, col) pairs. Stops early if the map
+    // runs out of water; the cells found for the block it was filling become a last, short block.
+    int[][] phases(int phases, int perPhase) {
+        Random random = new Random(seed ^ 0x5DEECE66DL);
+        HashSet<Long> taken = new HashSet<>();
+        long water = (long) rows * cols;   // upper bound until the map is known to run dry
+        int[][] blocks = new int[phases][];
+        for (int p = 0; p < phases; p++) {
+            int L = (int) Math.min(perPhase, Math.max(0, water - taken.size()));
+            int[] coords = new int[2 * L];
+            for (int k = 0; k < L; k++) {
+                int i, j;
+                int tries = 0;
+                do {
+                    i = random.nextInt(rows);
+                    j = random.nextInt(cols);
+                    if (++tries > 64 * (perPhase + 1)) {
+                        // mostly land or mostly used: count the water once and pick by rank
+                        water = countWater();
+                        if (water - taken.size() <= 0) {
+                            if (k > 0) {
+                                blocks[p++] = Arrays.copyOf(coords, 2 * k);
+                            }
+                            return Arrays.copyOf(blocks, p);
+                        }
+                        long cell = nthFreeWater((long) (random.nextDouble() * (water - taken.size())), taken);
+                        i = (int) (cell / cols);
+                        j = (int) (cell % cols);
+                        break;
+                    }
+                } while (isLand(i, j) || taken.contains((long) i * cols + j));
+                taken.add((long) i * cols + j);
+                coords[2 * k] = i;
+                coords[2 * k + 1] = j;
+            }
+            blocks[p] = coords;
+        }
+        return blocks;
+    }
+
+    private long countWater() {
+        long count = 0;
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                count += isLand(i, j) ? 0 : 1;
+            }
+        }
+        return count;
+    }
+
+    // Cell index of the n-th water cell (0-based, row-major) not yet taken.
+    private long nthFreeWater(long n, HashSet<Long> taken) {
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                long cell = (long) i * cols + j;
+                if (!isLand(i, j) && !taken.contains(cell) && n-- == 0) {
+                    return cell;
+                }
+            }
+        }
+        throw new IllegalStateException("no free water cell left");
+    }
+
+    // ---- Noise ----
+
+    // Fractal value noise in [0, 1): NOISE_OCTAVES layers of smoothly interpolated lattice values,
+    // the first with lattice spacing scale, each next one at half the spacing and half the weight.
+    private double noise(int i, int j, double scale) {
+        double sum = 0, weight = 1, total = 0;
+        for (int octave = 0; octave < NOISE_OCTAVES; octave++) {
+            double x = i / scale, y = j / scale;
+            long xi = (long) Math.floor(x), yi = (long) Math.floor(y);
+            double fx = smooth(x - xi), fy = smooth(y - yi);
+            long s = seed + octave * 0x632BE59BD9B4E019L;
+            double top = lerp(unit(hash(s, xi, yi)), unit(hash(s, xi, yi + 1)), fy);
+            double bottom = lerp(unit(hash(s, xi + 1, yi)), unit(hash(s, xi + 1, yi + 1)), fy);
+            sum += weight * lerp(top, bottom, fx);
+            total += weight;
+            weight /= 2;
+            scale = Math.max(1, scale / 2);
+        }
+        return sum / total;
+    }
+
+    // The noise level exceeded by fraction 1-q of the cells, estimated from a fixed sample.
+    private double noiseQuantile(double q) {
+        Random random = new Random(seed);
+        double[] sample = new double[4096];
+        for (int k = 0; k < sample.length; k++) {
+            sample[k] = level(random.nextInt(Math.max(1, rows)), random.nextInt(Math.max(1, cols)));
+        }
+        Arrays.sort(sample);
+        return sample[Math.min(sample.length - 1, Math.max(0, (int) (q * sample.length)))];
+    }
+
+    // Noise level of cell (i,j) for the noise shapes: coastlines vary over a quarter of the map,
+    // archipelago islands over a couple of dozen cells.
+    private double level(int i, int j) {
+        return shape.equals("coast") ? noise(i, j, Math.max(1, Math.max(rows, cols) / 4.0)) : noise(i, j, 24);
+    }
+
+    private static double smooth(double t) {
+        return t * t * (3 - 2 * t);
+    }
+
+    private static double lerp(double a, double b, double t) {
+        return a + (b - a) * t;
+    }
+
+    // SplitMix64 finalizer over the seed and a lattice point.
+    private static long hash(long seed, long x, long y) {
+        long h = seed + x * 0x9E3779B97F4A7C15L + y * 0xC2B2AE3D27D4EB4FL;
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+
+    private static double unit(long h) {
+        return (h >>> 11) * 0x1.0p-53;
+    }
+}
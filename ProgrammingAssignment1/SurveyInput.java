@@ -0,0 +1,327 @@
+// File name: SurveyInput.java
+// Byte-level reader for the survey input format (map size, 0/1 rows, phases of coordinates).
+// Replaces java.util.Scanner: no regex tokenizing and no String per token. Reads stdin through
+// a large byte buffer, or a file through a memory-mapped FileChannel. Input in the binary survey
+// format (see SurveyConverter) is recognized by its magic number and read through the same
+// nextInt/readRow calls, so the programs accept either format.
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+public class SurveyInput implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long MAP_WINDOW = 1L << 30;   // files are mapped 1 GB at a time
+
+    // First four bytes of a binary survey file ("ISM1"), or of one whose grid is stored as
+    // runs of land ("ISR1"); see SurveyConverter
+    static final int MAGIC = 0x49534D31;
+    static final int RUNS_MAGIC = 0x49535231;
+
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private int pos, len;
+
+    // Exactly one of these is the source
+    private final InputStream in;
+    private final FileChannel channel;
+    private MappedByteBuffer window;
+    private long windowEnd;   // file offset just past the current window
+
+    // Binary format: rows, cols and phase count from the header, handed out by nextInt in the
+    // order the text format has them; everything after the grid is varints
+    private boolean binary;
+    private boolean binaryRuns;
+    private final int[] header = new int[3];
+    private int headerPos;
+
+    // Runs of land of the row last read by readRuns: run k is [runs[2k], runs[2k+1])
+    private int[] runs = new int[16];
+    private BitGrid rowBuffer;   // for readRuns on input that is not stored as runs
+
+    // Replay source (see SurveyCache): a map and phase blocks already read from another input,
+    // handed out by nextInt/readRow in input order without encoding them again
+    private BitGrid replayMap;
+    private int[] replayHeader;
+    private int[][] replayPhases;
+    private int replayPhase, replayPos;   // next phase block, next coordinate in it (-1: its L)
+
+    // Reads from a stream (usually System.in).
+    public SurveyInput(InputStream in) throws IOException {
+        this.in = in;
+        this.channel = null;
+        detectBinary();
+    }
+
+    // Reads a file through memory-mapped windows.
+    public SurveyInput(Path file) throws IOException {
+        this.in = null;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        detectBinary();
+    }
+
+    // Replays map (rows, cols, the rows, then F) and phases[from..] as an input; with map null,
+    // just F and the phase blocks, the input of a resumed run.
+    SurveyInput(BitGrid map, int[][] phases, int from) {
+        this.in = null;
+        this.channel = null;
+        int count = phases.length - from;
+        replayMap = map;
+        replayHeader = map == null ? new int[] {count} : new int[] {map.rows(), map.cols(), count};
+        replayPhases = phases;
+        replayPhase = from;
+        replayPos = -1;
+    }
+
+    // Opens the file named by path, or stdin when path is null.
+    public static SurveyInput open(String path) throws IOException {
+        return path == null ? new SurveyInput(System.in) : new SurveyInput(Paths.get(path));
+    }
+
+    // Reads the next (optionally negative) decimal integer.
+    public int nextInt() throws IOException {
+        if (replayHeader != null) {
+            return nextReplayInt();
+        }
+        if (binary) {
+            return headerPos < header.length ? header[headerPos++] : readVarint();
+        }
+        int b = skipWhitespace();
+        boolean negative = b == '-';
+        if (negative) {
+            b = read();
+        }
+        if (b < '0' || b > '9') {
+            throw new InputMismatchException("expected an integer");
+        }
+        int value = 0;
+        while (b >= '0' && b <= '9') {
+            value = value * 10 + (b - '0');
+            b = read();
+        }
+        return negative ? -value : value;
+    }
+
+    // Reads one map row of '0'/'1' characters straight into row i of the bit grid.
+    public void readRow(BitGrid map, int i) throws IOException {
+        if (replayHeader != null) {
+            for (int w = 0; w < map.wordsPerRow(); w++) {
+                map.setWord(i, w, replayMap.word(i, w));
+            }
+            return;
+        }
+        if (binaryRuns) {
+            for (int w = 0; w < map.wordsPerRow(); w++) {
+                map.setWord(i, w, 0);
+            }
+            int count = readRuns(map.cols());
+            for (int k = 0; k < count; k++) {
+                setRun(map, i, runs[2 * k], runs[2 * k + 1]);
+            }
+            return;
+        }
+        if (binary) {
+            for (int w = 0; w < map.wordsPerRow(); w++) {
+                map.setWord(i, w, readLong());
+            }
+            return;
+        }
+        int cols = map.cols();
+        int b = skipWhitespace();
+        for (int w = 0; w < map.wordsPerRow(); w++) {
+            long bits = 0;
+            for (int j = w << 6, end = Math.min(cols, j + 64); j < end; j++) {
+                if (b != '0' && b != '1') {
+                    throw new InputMismatchException("expected " + cols + " map cells in row");
+                }
+                bits |= (long) (b - '0') << j;
+                b = read();
+            }
+            map.setWord(i, w, bits);
+        }
+        // Like Scanner.next(), anything left of an over-long row token is dropped
+        while (b > ' ') {
+            b = read();
+        }
+    }
+
+    // Reads one map row of the given width as its runs of land and returns how many there are;
+    // run k covers the columns runStart(k) .. runEnd(k)-1. Costs O(runs) on run-stored input.
+    public int readRuns(int cols) throws IOException {
+        int count = 0;
+        if (binaryRuns) {
+            count = readVarint();
+            if (2 * count > runs.length) {
+                runs = new int[2 * count];
+            }
+            int end = 0;
+            for (int k = 0; k < count; k++) {
+                runs[2 * k] = end + readVarint();
+                end = runs[2 * k] + readVarint();
+                runs[2 * k + 1] = end;
+            }
+            return count;
+        }
+        if (rowBuffer == null || rowBuffer.cols() != cols) {
+            rowBuffer = new BitGrid(1, cols);
+        }
+        readRow(rowBuffer, 0);
+        for (int start = rowBuffer.nextLand(0, 0); start < cols; start = rowBuffer.nextLand(0, start)) {
+            if (2 * count + 2 > runs.length) {
+                runs = Arrays.copyOf(runs, runs.length * 2);
+            }
+            runs[2 * count] = start;
+            start = rowBuffer.nextWater(0, start);
+            runs[2 * count++ + 1] = start;
+        }
+        return count;
+    }
+
+    public int runStart(int k) {
+        return runs[2 * k];
+    }
+
+    public int runEnd(int k) {
+        return runs[2 * k + 1];
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private int nextReplayInt() {
+        if (headerPos < replayHeader.length) {
+            return replayHeader[headerPos++];
+        }
+        if (replayPhase == replayPhases.length) {
+            throw new NoSuchElementException("unexpected end of input");
+        }
+        int[] coords = replayPhases[replayPhase];
+        int value = replayPos < 0 ? coords.length / 2 : coords[replayPos];
+        if (++replayPos == coords.length) {
+            replayPhase++;
+            replayPos = -1;
+        }
+        return value;
+    }
+
+    // Checks for the binary magic number; text input is left to be read from its first byte.
+    private void detectBinary() throws IOException {
+        refill();
+        // a stream may deliver the header in pieces
+        while (in != null && len < 16) {
+            int n = in.read(buf, len, buf.length - len);
+            if (n < 0) {
+                break;
+            }
+            len += n;
+        }
+        int magic = len < 16 ? 0 : readRawInt();
+        if (magic != MAGIC && magic != RUNS_MAGIC) {
+            pos = 0;
+            return;
+        }
+        binary = true;
+        binaryRuns = magic == RUNS_MAGIC;
+        for (int k = 0; k < header.length; k++) {
+            header[k] = readRawInt();
+        }
+    }
+
+    // Sets columns [start, end) of row i to land, a word at a time.
+    private static void setRun(BitGrid map, int i, int start, int end) {
+        for (int w = start >>> 6; w <= (end - 1) >>> 6; w++) {
+            long bits = -1L;
+            if (w == start >>> 6) bits &= -1L << start;
+            if (w == (end - 1) >>> 6) bits &= -1L >>> (63 - ((end - 1) & 63));
+            map.setWord(i, w, map.word(i, w) | bits);
+        }
+    }
+
+    private int readRawInt() throws IOException {
+        return (int) readBytes(4);
+    }
+
+    private long readLong() throws IOException {
+        return readBytes(8);
+    }
+
+    // Big-endian value of the next count bytes.
+    private long readBytes(int count) throws IOException {
+        long value = 0;
+        if (len - pos >= count) {
+            for (int k = 0; k < count; k++) {
+                value = value << 8 | (buf[pos++] & 0xFF);
+            }
+            return value;
+        }
+        for (int k = 0; k < count; k++) {
+            int b = read();
+            if (b < 0) {
+                throw new NoSuchElementException("unexpected end of input");
+            }
+            value = value << 8 | b;
+        }
+        return value;
+    }
+
+    private int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = read();
+            if (b < 0) {
+                throw new NoSuchElementException("unexpected end of input");
+            }
+            value |= (b & 0x7F) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+        }
+    }
+
+    // Returns the first non-whitespace byte; running out of input is an error here.
+    private int skipWhitespace() throws IOException {
+        int b = read();
+        while (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+            b = read();
+        }
+        if (b < 0) {
+            throw new NoSuchElementException("unexpected end of input");
+        }
+        return b;
+    }
+
+    // Next byte, or -1 at end of input.
+    private int read() throws IOException {
+        if (pos == len && !refill()) {
+            return -1;
+        }
+        return buf[pos++] & 0xFF;
+    }
+
+    private boolean refill() throws IOException {
+        pos = 0;
+        len = 0;
+        if (in != null) {
+            len = Math.max(in.read(buf), 0);
+            return len > 0;
+        }
+        if (window == null || !window.hasRemaining()) {
+            long size = channel.size();
+            if (windowEnd >= size) {
+                return false;
+            }
+            long start = windowEnd;
+            windowEnd = Math.min(size, start + MAP_WINDOW);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, windowEnd - start);
+        }
+        len = Math.min(buf.length, window.remaining());
+        window.get(buf, 0, len);
+        return true;
+    }
+}
@@ -0,0 +1,231 @@
+// File name: SurveyMetrics.java
+// Per-phase instrumentation for the survey programs. For every phase a Meter records the work
+// the island partition did (union calls that merged two clusters, find calls, parent pointers
+// rewritten by path halving; the bulk labelers of the initial phase count the same operations on
+// the raw forest), the same work in the lake pass's white partition, the white components it
+// examined, the bytes the surveying thread allocated and the wall time. The numbers go to two places:
+//   - JFR: survey.Phase and survey.LakePass events, recorded whenever a flight recording runs,
+//     e.g. java -XX:StartFlightRecording=filename=survey.jfr IslandLakeSurvey map1.txt
+//     (then jfr print --events survey.Phase survey.jfr); no event object is even created until
+//     the JVM's flight recorder has been started (loading JFR adds a quarter second to a run)
+//   - --metrics FILE: one JSON object per phase and line (SurveyBatch surveys share the file).
+// The partition only counts while a phase is being measured, so an unmeasured run pays one
+// branch per find. ForestPartition merges two clusters by linking their roots, so a union
+// relabels no nodes the way the list Partition does; the nodes whose parent changes afterwards
+// are the ones path halving rewrites in find, reported as "relinks".
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import jdk.jfr.*;
+
+public class SurveyMetrics implements Closeable {
+
+    @Name("survey.Phase")
+    @Label("Survey Phase")
+    @Category("Island Survey")
+    @Description("One phase of IslandSurvey or IslandLakeSurvey: the initial map (phase 0) or a phase block")
+    static class PhaseEvent extends Event {
+        @Label("Program") String program;
+        @Label("Phase") long phase;
+        @Label("New Land") int newLand;
+        @Label("Unions") long unions;
+        @Label("Finds") long finds;
+        @Label("Relinks") long relinks;
+        @Label("White Components") int whiteComponents;
+        @Label("White Unions") long whiteUnions;
+        @Label("White Finds") long whiteFinds;
+        @Label("White Relinks") long whiteRelinks;
+        @Label("Allocated") @DataAmount long allocated;
+        @Label("Islands") int islands;
+        @Label("Lakes") int lakes;
+    }
+
+    @Name("survey.LakePass")
+    @Label("Lake Pass")
+    @Category("Island Survey")
+    @Description("Rebuilding the white partition or identifying the lakes in it")
+    static class LakePassEvent extends Event {
+        @Label("Step") String step;
+        @Label("White Components") int components;
+        @Label("Finds") long finds;
+        @Label("Unions") long unions;
+    }
+
+    private final Path file;
+    private Writer out;   // opened by the first record
+
+    public SurveyMetrics(Path file) {
+        this.file = file;
+    }
+
+    // Appends one JSON line; records from several surveys never interleave.
+    synchronized void write(String line) throws IOException {
+        if (out == null) {
+            out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        }
+        out.write(line);
+        out.write('\n');
+        out.flush();
+    }
+
+    // Closes the file; a run without phases (e.g. answered by the cache) still leaves it empty.
+    @Override
+    public synchronized void close() throws IOException {
+        if (out == null) {
+            out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        }
+        out.close();
+    }
+
+    // True once a flight recording has been started in this JVM (by a flag or later by jcmd).
+    static boolean recording() {
+        return FlightRecorder.isInitialized();
+    }
+
+    // A lake pass event started now (null when not recording); lakePass(event, step, ...) finishes
+    // it with the white partition's finds and unions during the step (0 unless a phase is measured).
+    static LakePassEvent lakePass() {
+        if (!recording()) {
+            return null;
+        }
+        LakePassEvent event = new LakePassEvent();
+        event.begin();
+        return event;
+    }
+
+    static void lakePass(LakePassEvent event, String step, int components, long finds, long unions) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.step = step;
+            event.components = components;
+            event.finds = finds;
+            event.unions = unions;
+            event.commit();
+        }
+    }
+
+    // Bytes allocated by the current thread so far, or 0 if the JVM can't tell.
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    // Measures the phases of one survey, on the thread that runs it. The partition counters are
+    // cumulative, so each phase reports the difference between its start and its end. scratch is
+    // the lake pass's (null for IslandSurvey); its WP is counted like BP.
+    static class Meter {
+        private final String program;
+        private final SurveyMetrics sink;   // null: JFR events only
+        private boolean measuring;
+        private PhaseEvent event;           // null when not recording
+        private long startNanos, startAllocated, startUnions, startFinds, startRelinks;
+        private long startWhiteUnions, startWhiteFinds, startWhiteRelinks;
+
+        Meter(String program, SurveyMetrics sink) {
+            this.program = program;
+            this.sink = sink;
+        }
+
+        void start(ForestPartition BP, IslandLakeSurvey.LakeScratch scratch) {
+            event = recording() ? new PhaseEvent() : null;
+            measuring = sink != null || event != null;
+            if (scratch != null) {
+                scratch.countWork = measuring;   // the lake pass turns WP's counters on after clearing it
+            }
+            if (!measuring) {
+                return;
+            }
+            if (event != null) {
+                event.begin();
+            }
+            startUnions = BP.linkCount();
+            startFinds = BP.findCount();
+            startRelinks = BP.relinkCount();
+            BP.countWork(true);
+            if (scratch != null) {
+                startWhiteUnions = scratch.WP.linkCount();
+                startWhiteFinds = scratch.WP.findCount();
+                startWhiteRelinks = scratch.WP.relinkCount();
+                scratch.WP.countWork(true);
+            }
+            startAllocated = allocatedBytes();
+            startNanos = System.nanoTime();
+        }
+
+        // Ends the phase started last (with the same scratch).
+        void end(long phase, int newLand, ForestPartition BP, IslandLakeSurvey.LakeScratch scratch) throws IOException {
+            if (!measuring) {
+                return;
+            }
+            long wallNanos = System.nanoTime() - startNanos;
+            long allocated = allocatedBytes() - startAllocated;
+            BP.countWork(false);
+            long unions = BP.linkCount() - startUnions;
+            long finds = BP.findCount() - startFinds;
+            long relinks = BP.relinkCount() - startRelinks;
+            int islands = BP.numberOfClusters();
+            long whiteUnions = 0, whiteFinds = 0, whiteRelinks = 0;
+            if (scratch != null) {
+                scratch.countWork = false;
+                scratch.WP.countWork(false);
+                whiteUnions = scratch.WP.linkCount() - startWhiteUnions;
+                whiteFinds = scratch.WP.findCount() - startWhiteFinds;
+                whiteRelinks = scratch.WP.relinkCount() - startWhiteRelinks;
+            }
+
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.program = program;
+                    event.phase = phase;
+                    event.newLand = newLand;
+                    event.unions = unions;
+                    event.finds = finds;
+                    event.relinks = relinks;
+                    event.allocated = allocated;
+                    event.islands = islands;
+                    if (scratch != null) {
+                        event.whiteComponents = scratch.components;
+                        event.whiteUnions = whiteUnions;
+                        event.whiteFinds = whiteFinds;
+                        event.whiteRelinks = whiteRelinks;
+                        event.lakes = scratch.lakeCount;
+                    }
+                    event.commit();
+                }
+            }
+            if (sink == null) {
+                return;
+            }
+
+            StringBuilder line = new StringBuilder(256);
+            line.append("{\"program\":\"").append(program).append('"')
+                .append(",\"phase\":").append(phase)
+                .append(",\"newLand\":").append(newLand)
+                .append(",\"wallNanos\":").append(wallNanos)
+                .append(",\"allocatedBytes\":").append(allocated)
+                .append(",\"unions\":").append(unions)
+                .append(",\"finds\":").append(finds)
+                .append(",\"relinks\":").append(relinks)
+                .append(",\"islands\":").append(islands);
+            if (scratch != null) {
+                line.append(",\"whiteComponents\":").append(scratch.components)
+                    .append(",\"whiteUnions\":").append(whiteUnions)
+                    .append(",\"whiteFinds\":").append(whiteFinds)
+                    .append(",\"whiteRelinks\":").append(whiteRelinks)
+                    .append(",\"whitePartitionNanos\":").append(scratch.whiteNanos)
+                    .append(",\"identifyLakesNanos\":").append(scratch.lakeNanos)
+                    .append(",\"lakes\":").append(scratch.lakeCount);
+            }
+            sink.write(line.append('}').toString());
+        }
+    }
+}
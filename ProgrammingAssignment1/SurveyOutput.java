@@ -0,0 +1,120 @@
+// File name: SurveyOutput.java
+// Buffered result writer for the survey programs. Numbers are formatted straight into a reusable
+// byte buffer that is written out in large blocks, instead of one synchronized, autoflushing
+// System.out.println per line. Output bytes are the same as println's.
+
+import java.io.*;
+
+public class SurveyOutput implements Closeable, Flushable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes();
+
+    private final OutputStream out;
+    private final boolean closeTarget;   // stdout is flushed but never closed
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private int len;
+
+    // Writes to the given stream; it is only flushed on close.
+    public SurveyOutput(OutputStream out) {
+        this(out, false);
+    }
+
+    private SurveyOutput(OutputStream out, boolean closeTarget) {
+        this.out = out;
+        this.closeTarget = closeTarget;
+    }
+
+    // Opens the file named by path, or stdout when path is null.
+    public static SurveyOutput open(String path) throws IOException {
+        return path == null ? new SurveyOutput(System.out) : new SurveyOutput(new FileOutputStream(path), true);
+    }
+
+    // Writes value followed by a line separator.
+    public void println(long value) throws IOException {
+        // 20 digits, a sign and the separator always fit after one flush
+        if (len + 21 + NEWLINE.length > buf.length) {
+            flushBuffer();
+        }
+        putNumber(value);
+        newLine();
+    }
+
+    // Writes "first second" followed by a line separator.
+    public void println(long first, long second) throws IOException {
+        if (len + 43 + NEWLINE.length > buf.length) {
+            flushBuffer();
+        }
+        putNumber(first);
+        buf[len++] = ' ';
+        putNumber(second);
+        newLine();
+    }
+
+    // Writes bytes that are already formatted (e.g. a cached report) as they are.
+    public void write(byte[] bytes) throws IOException {
+        write(bytes, 0, bytes.length);
+    }
+
+    public void write(byte[] bytes, int off, int count) throws IOException {
+        flushBuffer();
+        out.write(bytes, off, count);
+    }
+
+    // Writes an empty line.
+    public void println() throws IOException {
+        if (len + NEWLINE.length > buf.length) {
+            flushBuffer();
+        }
+        newLine();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        if (closeTarget) {
+            out.close();
+        }
+    }
+
+    private void putNumber(long value) {
+        if (value < 0) {
+            buf[len++] = '-';
+        } else {
+            value = -value;   // work on the negative side so Long.MIN_VALUE needs no special case
+        }
+        int start = len;
+        do {
+            buf[len++] = (byte) ('0' - value % 10);
+            value /= 10;
+        } while (value != 0);
+        reverse(start, len - 1);
+    }
+
+    private void newLine() {
+        for (byte b : NEWLINE) {
+            buf[len++] = b;
+        }
+    }
+
+    private void reverse(int from, int to) {
+        while (from < to) {
+            byte tmp = buf[from];
+            buf[from++] = buf[to];
+            buf[to--] = tmp;
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (len > 0) {
+            out.write(buf, 0, len);
+            len = 0;
+        }
+    }
+}
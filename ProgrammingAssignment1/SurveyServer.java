@@ -0,0 +1,224 @@
+// File name: SurveyServer.java
+// Long-running survey service: loads a map once (text or binary survey input, or a checkpoint)
+// and keeps it resident in a SurveyEngine, answering requests over a local socket instead of
+// reloading and relabeling the map for every question.
+//
+// Protocol: one request per line, one reply line per request ("ERR message" on bad input).
+//   ADD i j [i j ...]   add land squares (a phase)           -> OK islandCount
+//   ISLAND i j          island of (i,j): its leader cell       -> leader, or -1 for water
+//   SIZE i j            land squares of the island at (i,j)    -> size, or 0 for water
+//   COUNTS              current islands and their total area   -> islandCount totalArea
+//   LAKES               current lakes (as IslandLakeSurvey)    -> lakeCount lakeArea
+//   LAKE i j            lake containing water square (i,j)     -> owner island leader and lake area,
+//                                                                 or -1 0 if it is not part of a lake
+//   QUIT                close the connection
+//
+// Usage: java SurveyServer [--port N] [--resume checkpoint] [map file]   (port 0 picks a free one)
+// Connections are served on virtual threads where the JVM has them (Java 21+) and on one pooled
+// thread each otherwise. ADD holds the write lock; queries share the read lock. The lake pass is
+// redone once per ADD, before its write lock is released, so no query ever relabels the map;
+// an ADD therefore costs a full lake pass (a scan of the map), whether or not lakes are asked for.
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class SurveyServer {
+
+    private final SurveyEngine engine;
+    private final int rows, cols;
+
+    // Single writer (ADD, which also brings the lake pass up to date), many readers (everything
+    // else). Readers only use engine calls that do not change it.
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    SurveyServer(SurveyEngine engine) {
+        this.engine = engine;
+        this.rows = engine.rows();
+        this.cols = engine.cols();
+        engine.updateLakes();
+    }
+
+    public static void main(String[] args) {
+        int port = 0;
+        String path = null;
+        String resumePath = null;
+        for (int a = 0; a < args.length; a++) {
+            if (args[a].equals("--port") && a + 1 < args.length) {
+                port = Integer.parseInt(args[++a]);
+            } else if (args[a].equals("--resume") && a + 1 < args.length) {
+                resumePath = args[++a];
+            } else {
+                path = args[a];
+            }
+        }
+
+        try {
+            SurveyEngine engine = resumePath != null ? SurveyEngine.fromCheckpoint(resumePath) : SurveyEngine.load(path);
+            SurveyServer survey = new SurveyServer(engine);
+            ServerSocket server = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+            System.out.println("listening on " + server.getLocalPort());
+            System.out.flush();
+
+            ExecutorService connections = connectionExecutor();
+            while (true) {
+                Socket socket = server.accept();
+                connections.execute(() -> survey.serve(socket));
+            }
+        } catch (Exception e) {
+            System.err.println("Error starting server: " + e.getMessage());
+        }
+    }
+
+    // Virtual threads when available (Java 21+), else a cached pool of daemon threads.
+    private static ExecutorService connectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "survey-connection");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    // Answers the requests of one connection until QUIT or end of stream.
+    void serve(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String reply = handle(line.trim());
+                if (reply == null) {
+                    break;
+                }
+                out.write(reply);
+                out.write('\n');
+                // Reply as soon as no further request is already waiting (pipelined requests share a flush)
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // the client went away; nothing to clean up beyond the socket
+        }
+    }
+
+    // Returns the reply to one request, or null for QUIT.
+    String handle(String request) {
+        String[] t = request.split("\\s+");
+        try {
+            switch (t[0].toUpperCase()) {
+                case "ADD":
+                    return add(t);
+                case "ISLAND":
+                    return island(cell(t, 1));
+                case "SIZE":
+                    return size(cell(t, 1));
+                case "COUNTS":
+                    return counts();
+                case "LAKES":
+                    return lakes();
+                case "LAKE":
+                    return lake(cell(t, 1));
+                case "QUIT":
+                    return null;
+                default:
+                    return "ERR unknown request " + t[0];
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return "ERR expected row and column numbers";
+        } catch (IllegalArgumentException e) {
+            return "ERR " + e.getMessage();
+        }
+    }
+
+    private String add(String[] t) {
+        if (t.length < 3 || t.length % 2 == 0) {
+            throw new IllegalArgumentException("ADD needs row column pairs");
+        }
+        // Check every square first so a bad request changes nothing
+        int[] cells = new int[(t.length - 1) / 2];
+        for (int k = 0; k < cells.length; k++) {
+            cells[k] = cell(t, 1 + 2 * k);
+        }
+        lock.writeLock().lock();
+        try {
+            for (int k = 0; k < cells.length; k++) {
+                if (engine.isLand(cells[k] / cols, cells[k] % cols)) {
+                    throw new IllegalArgumentException("square " + cells[k] / cols + " " + cells[k] % cols + " is already land");
+                }
+            }
+            for (int cell : cells) {
+                if (!engine.isLand(cell / cols, cell % cols)) {
+                    engine.addLand(cell / cols, cell % cols);
+                }
+            }
+            engine.updateLakes();
+            return "OK " + engine.islandCount();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private String island(int cell) {
+        lock.readLock().lock();
+        try {
+            return String.valueOf(engine.islandOf(cell / cols, cell % cols));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private String size(int cell) {
+        lock.readLock().lock();
+        try {
+            return String.valueOf(engine.islandSize(cell / cols, cell % cols));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private String counts() {
+        lock.readLock().lock();
+        try {
+            return engine.islandCount() + " " + engine.totalArea();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private String lakes() {
+        lock.readLock().lock();
+        try {
+            return engine.lakeCount() + " " + engine.lakeArea();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private String lake(int cell) {
+        lock.readLock().lock();
+        try {
+            int i = cell / cols, j = cell % cols;
+            return engine.lakeOwner(i, j) + " " + engine.lakeSize(i, j);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Cell index of the (row, column) pair at t[k], t[k+1]; must be inside the map.
+    private int cell(String[] t, int k) {
+        int i = Integer.parseInt(t[k]);
+        int j = Integer.parseInt(t[k + 1]);
+        if (i < 0 || i >= rows || j < 0 || j >= cols) {
+            throw new IllegalArgumentException("square " + i + " " + j + " is outside the map");
+        }
+        return i * cols + j;
+    }
+}
@@ -0,0 +1,50 @@
+// File name: SurveyWorkspace.java
+// Reusable grid and partition buffers for running many surveys one after another on one thread
+// (see SurveyBatch). A buffer is handed out again, cleared, when the next map fits it, so a
+// worker allocates only when it meets a map of a new shape or a much larger size. Not
+// thread-safe: one workspace per worker.
+
+public class SurveyWorkspace {
+
+    // A buffer more than this many times larger than needed is dropped instead of cleared,
+    // so one huge map does not make every later small one pay for clearing it.
+    private static final int MAX_SLACK = 4;
+
+    private BitGrid grid;
+    private ForestPartition islands;
+    private IslandLakeSurvey.LakeScratch lakes;
+
+    // An all-water grid of the given size.
+    public BitGrid grid(int rows, int cols) {
+        if (grid != null && grid.rows() == rows && grid.cols() == cols) {
+            grid.clear();
+        } else {
+            grid = new BitGrid(rows, cols);
+        }
+        return grid;
+    }
+
+    // An empty partition over at least the indices 0 .. cells-1 (for BP).
+    public ForestPartition islands(int cells) {
+        if (fits(islands == null ? -1 : islands.capacity(), cells)) {
+            islands.clear();
+        } else {
+            islands = new ForestPartition(cells);
+        }
+        return islands;
+    }
+
+    // Lake pass scratch space (with an empty WP) for at least cells cells.
+    IslandLakeSurvey.LakeScratch lakes(int cells) {
+        if (fits(lakes == null ? -1 : lakes.WP.capacity(), cells)) {
+            lakes.WP.clear();
+        } else {
+            lakes = new IslandLakeSurvey.LakeScratch(cells);
+        }
+        return lakes;
+    }
+
+    private static boolean fits(int capacity, int cells) {
+        return capacity >= cells && capacity / MAX_SLACK <= cells;
+    }
+}